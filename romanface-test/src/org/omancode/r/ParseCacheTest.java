@@ -0,0 +1,97 @@
+package org.omancode.r;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * In {@code org.omancode.r} rather than {@code org.omancode.r.test} because
+ * {@link ParseCache} is package private.
+ */
+public class ParseCacheTest {
+
+	private ParseCache cache;
+
+	@Before
+	public void setUp() throws Exception {
+		cache = new ParseCache(2);
+	}
+
+	@Test
+	public void testGetPut() {
+		assertNull(cache.get("1 + 1"));
+		String name = cache.put("1 + 1");
+		assertEquals(name, cache.get("1 + 1"));
+		assertFalse(name.equals(cache.put("2 + 2")));
+
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+	}
+
+	@Test
+	public void testEvictsLeastRecentlyUsed() {
+		String a = cache.put("a");
+		String b = cache.put("b");
+
+		// use a, so b is the least recently used
+		cache.get("a");
+		cache.put("c");
+
+		assertEquals(a, cache.get("a"));
+		assertNull(cache.get("b"));
+		assertArrayEquals(new String[] { b }, cache.drainEvictions());
+	}
+
+	@Test
+	public void testDrainEvictions() {
+		assertEquals(0, cache.drainEvictions().length);
+
+		String a = cache.put("a");
+		cache.put("b");
+		String c = cache.put("c");
+
+		// removed names are dropped along with evicted ones
+		cache.remove("c");
+		cache.remove("not cached");
+
+		assertArrayEquals(new String[] { a, c }, cache.drainEvictions());
+		assertNull(cache.get("c"));
+
+		// drained
+		assertEquals(0, cache.drainEvictions().length);
+	}
+
+	@Test
+	public void testRequeueEvictions() {
+		cache.put("a");
+		cache.put("b");
+		cache.put("c");
+		cache.put("d");
+
+		String[] evicted = cache.drainEvictions();
+		assertEquals(2, evicted.length);
+		cache.requeueEvictions(evicted);
+		assertArrayEquals(evicted, cache.drainEvictions());
+	}
+
+	@Test
+	public void testRemoveStatement() {
+		assertEquals("", ParseCache.removeStatement(new String[0]));
+		assertEquals("suppressWarnings(rm(list = c(\"e1\",\"e2\"), envir = "
+				+ ParseCache.CACHE_ENV + ")); ", ParseCache
+				.removeStatement(new String[] { "e1", "e2" }));
+	}
+
+	@Test
+	public void testClear() {
+		cache.put("a");
+		cache.put("b");
+		cache.put("c");
+		cache.clear();
+
+		assertNull(cache.get("b"));
+		assertEquals(0, cache.drainEvictions().length);
+	}
+
+}
@@ -0,0 +1,100 @@
+package org.omancode.r.test;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.omancode.r.types.FactorList;
+import org.rosuda.REngine.REXPFactor;
+import org.rosuda.REngine.REXPInteger;
+
+public class FactorListTest {
+
+	private enum Colour {
+		RED, GREEN, BLUE
+	}
+
+	@Test
+	public void testEncode() {
+		FactorList factor =
+				FactorList.encode(Arrays.asList("b", "a", null, "b"), 2);
+
+		assertNotNull(factor);
+		assertArrayEquals(new String[] { "b", "a" }, factor.getLevels());
+		assertArrayEquals(new int[] { 1, 2, REXPInteger.NA, 1 }, factor
+				.getCodes().toIntArray());
+		assertEquals("a", factor.get(1));
+		assertNull(factor.get(2));
+	}
+
+	@Test
+	public void testEncodeTooManyLevels() {
+		assertNull(FactorList.encode(Arrays.asList("a", "b", "c"), 2));
+	}
+
+	@Test
+	public void testForEnum() {
+		FactorList factor = FactorList.forEnum(Colour.class, 2);
+		assertArrayEquals(new String[] { "RED", "GREEN", "BLUE" }, factor
+				.getLevels());
+		assertEquals(0, factor.size());
+
+		factor.addValue(Colour.BLUE);
+		factor.addValue(null);
+		assertEquals(3, factor.getCode(0));
+		assertEquals(REXPInteger.NA, factor.getCode(1));
+		assertEquals("BLUE", factor.get(0));
+		assertEquals(3, factor.getNumLevels());
+	}
+
+	@Test
+	public void testSetValue() {
+		FactorList factor = new FactorList(new String[] { "a" }, 2);
+		factor.addValue("a");
+		factor.addValue("a");
+
+		// new levels are added as needed
+		factor.setValue(1, "b");
+		assertArrayEquals(new String[] { "a", "b" }, factor.getLevels());
+		assertEquals(2, factor.getCode(1));
+
+		// non-strings by their string value
+		factor.setValue(0, Integer.valueOf(7));
+		assertEquals("7", factor.get(0));
+		assertEquals(3, factor.getNumLevels());
+
+		factor.setValue(0, null);
+		assertEquals(REXPInteger.NA, factor.getCode(0));
+		assertNull(factor.set(0, "a"));
+		assertEquals(1, factor.getCode(0));
+	}
+
+	@Test
+	public void testSetSize() {
+		FactorList factor = new FactorList(1);
+		factor.addValue("a");
+		factor.setSize(3);
+
+		assertEquals(3, factor.size());
+		assertEquals(REXPInteger.NA, factor.getCode(1));
+		assertEquals(REXPInteger.NA, factor.getCode(2));
+	}
+
+	@Test
+	public void testToREXPFactor() throws Exception {
+		FactorList factor =
+				FactorList.wrap(new int[] { 2, REXPInteger.NA, 1 },
+						new String[] { "x", "y" });
+		factor.add("y");
+
+		REXPFactor rexp = factor.toREXPFactor();
+		assertArrayEquals(new int[] { 2, REXPInteger.NA, 1, 2 }, rexp
+				.asIntegers());
+		assertArrayEquals(new String[] { "x", "y" }, rexp.asFactor()
+				.levels());
+		assertArrayEquals(new String[] { "y", null, "x", "y" }, rexp
+				.asStrings());
+	}
+
+}
@@ -0,0 +1,123 @@
+package org.omancode.r.test;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+import org.omancode.r.types.LogicalList;
+import org.rosuda.REngine.REXPLogical;
+
+public class LogicalListTest {
+
+	@Test
+	public void testNA() {
+		LogicalList list =
+				new LogicalList(new byte[] { REXPLogical.TRUE,
+						REXPLogical.NA, REXPLogical.FALSE });
+
+		assertEquals(3, list.size());
+		assertTrue(list.getBoolean(0));
+		assertTrue(list.isNA(1));
+		assertFalse(list.getBoolean(1));
+		assertNull(list.get(1));
+		assertEquals(Boolean.FALSE, list.get(2));
+
+		list.setBoolean(1, true);
+		assertFalse(list.isNA(1));
+		assertTrue(list.getBoolean(1));
+
+		list.set(0, null);
+		assertTrue(list.isNA(0));
+		assertFalse(list.getBoolean(0));
+	}
+
+	@Test
+	public void testAddAcrossWordBoundary() {
+		int size = LogicalList.WORD_SIZE * 2 + 1;
+		LogicalList list = new LogicalList(1);
+		for (int i = 0; i < size; i++) {
+			if (i % 3 == 0) {
+				list.add(null);
+			} else {
+				list.addBoolean(i % 3 == 1);
+			}
+		}
+
+		assertEquals(size, list.size());
+		for (int i = 0; i < size; i++) {
+			assertEquals(i % 3 == 0, list.isNA(i));
+			assertEquals(i % 3 == 1, list.getBoolean(i));
+		}
+	}
+
+	@Test
+	public void testSetSizeAcrossWordBoundary() {
+		int size = LogicalList.WORD_SIZE + 6;
+		LogicalList list = new LogicalList(size);
+		for (int i = 0; i < size; i++) {
+			if (i % 2 == 0) {
+				list.add(null);
+			} else {
+				list.addBoolean(true);
+			}
+		}
+
+		// shrink below the boundary, then grow past it again
+		int shrunk = LogicalList.WORD_SIZE - 2;
+		list.setSize(shrunk);
+		assertEquals(shrunk, list.size());
+		list.setSize(size);
+
+		for (int i = 0; i < shrunk; i++) {
+			assertEquals(i % 2 == 0, list.isNA(i));
+			assertEquals(i % 2 == 1, list.getBoolean(i));
+		}
+		for (int i = shrunk; i < size; i++) {
+			assertFalse(list.isNA(i));
+			assertFalse(list.getBoolean(i));
+		}
+	}
+
+	@Test
+	public void testAddRemoveShifts() {
+		int size = LogicalList.WORD_SIZE + 1;
+		LogicalList list = new LogicalList(size);
+		for (int i = 0; i < size; i++) {
+			list.addBoolean(i == size - 1);
+		}
+
+		// insert NA at the front, pushing the last TRUE into the next word
+		list.add(0, null);
+		assertEquals(size + 1, list.size());
+		assertTrue(list.isNA(0));
+		assertTrue(list.getBoolean(size));
+		assertFalse(list.getBoolean(size - 1));
+
+		assertNull(list.remove(0));
+		assertEquals(size, list.size());
+		assertFalse(list.isNA(0));
+		assertTrue(list.getBoolean(size - 1));
+
+		assertEquals(Boolean.TRUE, list.remove(size - 1));
+		list.setSize(size);
+		assertFalse(list.getBoolean(size - 1));
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testBeyondSize() {
+		LogicalList list = new LogicalList(LogicalList.WORD_SIZE);
+		list.addBoolean(true);
+		list.getBoolean(1);
+	}
+
+	@Test
+	public void testToLogicalArray() {
+		byte[] logicals =
+				new byte[] { REXPLogical.FALSE, REXPLogical.NA,
+						REXPLogical.TRUE };
+		LogicalList list = new LogicalList(logicals);
+
+		assertArrayEquals(logicals, list.toLogicalArray());
+		assertArrayEquals(logicals, list.toREXPLogical().asBytes());
+	}
+
+}
@@ -0,0 +1,137 @@
+package org.omancode.r.test;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.omancode.r.RFaceException;
+import org.omancode.r.types.REXPUtil;
+import org.rosuda.REngine.REXP;
+import org.rosuda.REngine.REXPDouble;
+import org.rosuda.REngine.REXPFactor;
+import org.rosuda.REngine.REXPInteger;
+import org.rosuda.REngine.REXPString;
+import org.rosuda.REngine.REXPVector;
+import org.rosuda.REngine.RList;
+
+public class REXPUtilTest {
+
+	private static final String[] ROW_NAMES = new String[] { "r1", "r2" };
+
+	private static RList columns(REXP... columns) {
+		REXP[] rexps = new REXP[columns.length + 1];
+		rexps[0] = new REXPString(ROW_NAMES);
+		System.arraycopy(columns, 0, rexps, 1, columns.length);
+
+		String[] names = new String[rexps.length];
+		names[0] = "rownames";
+		for (int i = 1; i < names.length; i++) {
+			names[i] = "c" + i;
+		}
+		return new RList(rexps, names);
+	}
+
+	@Test
+	public void testDoubleMatrix() throws Exception {
+		REXPDouble matrix =
+				REXPUtil.toMatrix(new double[] { 1, 2, 3, 4, 5, 6 }, 2, 3,
+						ROW_NAMES, new String[] { "a", "b", "c" });
+
+		assertArrayEquals(new int[] { 2, 3 }, matrix.getAttribute("dim")
+				.asIntegers());
+		RList dimnames = matrix.getAttribute("dimnames").asList();
+		assertArrayEquals(ROW_NAMES, dimnames.at(0).asStrings());
+		assertArrayEquals(new String[] { "a", "b", "c" }, dimnames.at(1)
+				.asStrings());
+		assertArrayEquals(new double[] { 1, 2, 3, 4, 5, 6 }, matrix
+				.asDoubles(), 0);
+	}
+
+	@Test
+	public void testIntegerMatrixWithoutNames() throws Exception {
+		REXPInteger matrix =
+				REXPUtil.toMatrix(new int[] { 1, 2, 3, 4 }, 2, 2, null, null);
+
+		assertArrayEquals(new int[] { 2, 2 }, matrix.getAttribute("dim")
+				.asIntegers());
+		assertNull(matrix.getAttribute("dimnames"));
+	}
+
+	@Test
+	public void testRowNamesOnly() throws Exception {
+		REXPInteger matrix =
+				REXPUtil.toMatrix(new int[] { 1, 2 }, 2, 1, ROW_NAMES, null);
+
+		RList dimnames = matrix.getAttribute("dimnames").asList();
+		assertArrayEquals(ROW_NAMES, dimnames.at(0).asStrings());
+		assertTrue(dimnames.at(1).isNull());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testWrongLength() {
+		REXPUtil.toMatrix(new double[] { 1, 2, 3 }, 2, 2, null, null);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testWrongNumberOfNames() {
+		REXPUtil.toMatrix(new double[] { 1, 2 }, 2, 1, ROW_NAMES,
+				new String[] { "a", "b" });
+	}
+
+	@Test
+	public void testIntegerColumns() throws Exception {
+		REXPVector matrix =
+				REXPUtil.toMatrix(columns(new REXPInteger(new int[] { 1, 2 }),
+						new REXPInteger(new int[] { 3, REXPInteger.NA })));
+
+		assertTrue(matrix instanceof REXPInteger);
+		assertArrayEquals(new int[] { 1, 2, 3, REXPInteger.NA }, matrix
+				.asIntegers());
+		assertArrayEquals(new String[] { "c1", "c2" }, matrix.getAttribute(
+				"dimnames").asList().at(1).asStrings());
+	}
+
+	@Test
+	public void testMixedColumnsAreDouble() throws Exception {
+		REXPVector matrix =
+				REXPUtil.toMatrix(columns(new REXPInteger(new int[] { 1,
+						REXPInteger.NA }), new REXPDouble(new double[] { 2.5,
+						3 })));
+
+		assertTrue(matrix instanceof REXPDouble);
+		double[] values = matrix.asDoubles();
+		assertEquals(1, values[0], 0);
+		assertTrue(REXPDouble.isNA(values[1]));
+		assertEquals(2.5, values[2], 0);
+		assertArrayEquals(new int[] { 2, 2 }, matrix.getAttribute("dim")
+				.asIntegers());
+	}
+
+	@Test
+	public void testFactorColumnIsNotNumeric() throws Exception {
+		assertNull(REXPUtil.toMatrix(columns(new REXPInteger(new int[] { 1,
+				2 }), new REXPFactor(new int[] { 1, 2 }, new String[] { "a",
+				"b" }))));
+		assertNull(REXPUtil.toMatrix(columns(new REXPString(new String[] {
+				"a", "b" }))));
+	}
+
+	@Test(expected = RFaceException.class)
+	public void testColumnOfWrongLength() throws Exception {
+		REXPUtil.toMatrix(columns(new REXPDouble(new double[] { 1 })));
+	}
+
+	@Test(expected = RFaceException.class)
+	public void testTooManyElements() throws Exception {
+		// 50000 x 50000 is more than Integer.MAX_VALUE elements
+		String[] rowNames = new String[50000];
+		Arrays.fill(rowNames, "r");
+		REXP[] rexps = new REXP[50001];
+		rexps[0] = new REXPString(rowNames);
+		Arrays.fill(rexps, 1, rexps.length, new REXPDouble(1));
+
+		REXPUtil.toMatrix(new RList(rexps));
+	}
+
+}
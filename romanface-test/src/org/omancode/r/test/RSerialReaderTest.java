@@ -0,0 +1,223 @@
+package org.omancode.r.test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.omancode.r.types.FactorList;
+import org.omancode.r.types.RDataFrame;
+import org.omancode.r.types.RSerialReader;
+import org.omancode.r.types.RSerialWriter;
+import org.omancode.r.types.RVector;
+import org.rosuda.REngine.REXP;
+import org.rosuda.REngine.REXPDouble;
+import org.rosuda.REngine.REXPGenericVector;
+import org.rosuda.REngine.REXPInteger;
+import org.rosuda.REngine.REXPString;
+
+public class RSerialReaderTest {
+
+	private enum Colour {
+		RED, GREEN, BLUE
+	}
+
+	private static RDataFrame roundTrip(RVector... vectors)
+			throws IOException {
+		byte[] bytes = RSerialWriter.serialize(Arrays.asList(vectors));
+		return new RDataFrame("df", RSerialReader.unserialize(bytes));
+	}
+
+	/**
+	 * Read a serialized object from a resource next to this class. The
+	 * resources were assembled by hand, byte for byte, in the XDR format
+	 * {@code serialize(x, NULL, version = 3)} produces for each ALTREP class.
+	 */
+	private REXP readResource(String name) throws IOException {
+		InputStream in = getClass().getResourceAsStream(name);
+		assertNotNull(name, in);
+		try {
+			return new RSerialReader(in).readObject();
+		} finally {
+			in.close();
+		}
+	}
+
+	@Test
+	public void testDoubles() throws IOException {
+		RVector vector = new RVector("d", Double.class, 3);
+		vector.addDouble(1.5);
+		vector.addValue(null);
+		vector.addDouble(Double.NaN);
+
+		RDataFrame df = roundTrip(vector);
+		assertEquals(3, df.getRowCount());
+		assertEquals(1.5, df.getDouble(0, 0), 0);
+		assertTrue(df.isNA(0, 1));
+		assertFalse(df.isNA(0, 2));
+		assertTrue(Double.isNaN(df.getDouble(0, 2)));
+	}
+
+	@Test
+	public void testInts() throws IOException {
+		RVector vector = new RVector("i", Integer.class, 3);
+		vector.addInt(Integer.MAX_VALUE);
+		vector.addValue(null);
+		vector.addInt(-1);
+
+		RDataFrame df = roundTrip(vector);
+		assertEquals(Integer.MAX_VALUE, df.getInt(0, 0));
+		assertTrue(df.isNA(0, 1));
+		assertEquals(-1, df.getInt(0, 2));
+	}
+
+	@Test
+	public void testLogicals() throws IOException {
+		RVector vector = new RVector("l", Boolean.class, 3);
+		vector.addBoolean(true);
+		vector.addValue(null);
+		vector.addBoolean(false);
+
+		RDataFrame df = roundTrip(vector);
+		assertTrue(df.getBoolean(0, 0));
+		assertTrue(df.isNA(0, 1));
+		assertFalse(df.isNA(0, 2));
+		assertFalse(df.getBoolean(0, 2));
+	}
+
+	@Test
+	public void testStrings() throws IOException {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 10000; i++) {
+			sb.append((char) ('a' + i % 26));
+		}
+		String longString = sb.toString();
+		String utf8 = "na\u00efve \u65e5\u672c \u20ac";
+
+		RVector vector = new RVector("s", String.class, 4);
+		vector.addValue(longString);
+		vector.addValue(null);
+		vector.addValue(utf8);
+		vector.addValue("");
+
+		RDataFrame df = roundTrip(vector);
+		assertArrayEquals(new String[] { longString, null, utf8, "" }, df
+				.getStrings(0));
+		assertTrue(df.isNA(0, 1));
+		assertFalse(df.isNA(0, 3));
+	}
+
+	@Test
+	public void testFactor() throws IOException {
+		RVector vector = new RVector("f", Colour.class, 3);
+		vector.addValue(Colour.BLUE);
+		vector.addValue(null);
+		vector.addValue(Colour.RED);
+
+		RVector column = roundTrip(vector).getColumn(0);
+		assertTrue(column.getValues() instanceof FactorList);
+		assertArrayEquals(new String[] { "RED", "GREEN", "BLUE" },
+				((FactorList) column.getValues()).getLevels());
+		assertEquals("BLUE", column.getString(0));
+		assertEquals(3, column.getInt(0));
+		assertNull(column.getString(1));
+		assertEquals(REXPInteger.NA, column.getInt(1));
+		assertEquals("RED", column.getString(2));
+	}
+
+	@Test
+	public void testInteger64() throws IOException {
+		RVector vector = new RVector("l", Long.class, 3);
+		vector.addLong(Long.MAX_VALUE);
+		vector.addValue(null);
+		vector.addLong(-1L);
+
+		RVector column = roundTrip(vector).getColumn(0);
+		assertEquals(Long.class, column.getType());
+		assertEquals(Long.MAX_VALUE, column.getLong(0));
+		assertTrue(column.isNA(1));
+		assertEquals(-1L, column.getLong(2));
+	}
+
+	@Test
+	public void testEmptyFrame() throws Exception {
+		RDataFrame df =
+				roundTrip(new RVector("d", Double.class, 0), new RVector(
+						"s", String.class, 0));
+		assertEquals(0, df.getRowCount());
+		assertEquals(2, df.getColumnCount());
+		assertEquals(0, df.getColumn(1).size());
+
+		REXP rexp =
+				RSerialReader.unserialize(RSerialWriter
+						.serialize(new ArrayList<RVector>()));
+		assertTrue(rexp instanceof REXPGenericVector);
+		assertTrue(RDataFrame.isDataFrame(rexp));
+		assertEquals(0, rexp.length());
+	}
+
+	@Test
+	public void testReadRDS() throws IOException {
+		RVector vector = new RVector("d", Double.class, 2);
+		vector.addDouble(1);
+		vector.addDouble(2);
+
+		File file = File.createTempFile("RSerialReaderTest", ".rds");
+		try {
+			RSerialWriter.writeRDS(Arrays.asList(vector), file);
+			RDataFrame df = RSerialReader.readDataFrame(file);
+			assertEquals(file.getName(), df.getName());
+			assertArrayEquals(new double[] { 1, 2 }, df.getDoubles(0), 0);
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testNotXDR() throws IOException {
+		RSerialReader.unserialize("A\n".getBytes("US-ASCII"));
+	}
+
+	@Test
+	public void testAltrepCompactIntseq() throws IOException {
+		// 1:10
+		REXP rexp = readResource("altrep_compact_intseq.bin");
+		assertTrue(rexp instanceof REXPInteger);
+		assertArrayEquals(new int[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10 },
+				((REXPInteger) rexp).asIntegers());
+	}
+
+	@Test
+	public void testAltrepCompactRealseq() throws IOException {
+		// as.numeric(5:2)
+		REXP rexp = readResource("altrep_compact_realseq.bin");
+		assertTrue(rexp instanceof REXPDouble);
+		assertArrayEquals(new double[] { 5, 4, 3, 2 }, ((REXPDouble) rexp)
+				.asDoubles(), 0);
+	}
+
+	@Test
+	public void testAltrepWrapper() throws Exception {
+		// c(a = 3L, b = 1L, c = 2L), wrapped
+		REXP rexp = readResource("altrep_wrap_integer.bin");
+		assertTrue(rexp instanceof REXPInteger);
+		assertArrayEquals(new int[] { 3, 1, 2 }, ((REXPInteger) rexp)
+				.asIntegers());
+		assertArrayEquals(new String[] { "a", "b", "c" }, rexp
+				.getAttribute("names").asStrings());
+	}
+
+	@Test
+	public void testAltrepDeferredString() throws IOException {
+		// as.character(c(1.5, NA, 100))
+		REXP rexp = readResource("altrep_deferred_string.bin");
+		assertTrue(rexp instanceof REXPString);
+		assertArrayEquals(new String[] { "1.5", null, "100" },
+				((REXPString) rexp).asStrings());
+	}
+
+}
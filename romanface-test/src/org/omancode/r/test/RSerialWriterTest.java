@@ -0,0 +1,90 @@
+package org.omancode.r.test;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Test;
+import org.omancode.r.types.RSerialWriter;
+import org.omancode.r.types.RVector;
+import org.omancode.r.types.UnsupportedTypeException;
+import org.rosuda.REngine.REXPString;
+
+public class RSerialWriterTest {
+
+	private static List<RVector> doubles(double... values)
+			throws UnsupportedTypeException {
+		RVector vector = new RVector("x", Double.class, values.length);
+		vector.addDoubles(values);
+		List<RVector> vectors = new ArrayList<RVector>();
+		vectors.add(vector);
+		return vectors;
+	}
+
+	@Test
+	public void testHeader() throws IOException {
+		byte[] bytes = RSerialWriter.serialize(doubles(1, 2));
+
+		DataInputStream in =
+				new DataInputStream(new ByteArrayInputStream(bytes));
+		assertEquals('X', in.readByte());
+		assertEquals('\n', in.readByte());
+		assertEquals(RSerialWriter.VERSION, in.readInt());
+	}
+
+	@Test
+	public void testWriteRDS() throws IOException {
+		List<RVector> vectors = doubles(1, 2, 3);
+		File file = File.createTempFile("RSerialWriterTest", ".rds");
+		try {
+			RSerialWriter.writeRDS(vectors, file);
+
+			InputStream in = new GZIPInputStream(new FileInputStream(file));
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			try {
+				byte[] buf = new byte[1024];
+				int n;
+				while ((n = in.read(buf)) != -1) {
+					bytes.write(buf, 0, n);
+				}
+			} finally {
+				in.close();
+			}
+
+			assertArrayEquals(RSerialWriter.serialize(vectors), bytes
+					.toByteArray());
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testAnyStringList() throws Exception {
+		// backed by Arrays.asList rather than an ArrayList
+		RVector strings =
+				new RVector("s", new REXPString(new String[] { "a", null,
+						"c" }));
+		assertFalse(strings.getValues() instanceof ArrayList);
+
+		byte[] bytes = RSerialWriter.serialize(Arrays.asList(strings));
+		assertTrue(bytes.length > 0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnequalLengths() throws IOException {
+		List<RVector> vectors = doubles(1, 2, 3);
+		vectors.addAll(doubles(1, 2));
+		RSerialWriter.serialize(vectors);
+	}
+
+}
@@ -0,0 +1,59 @@
+package org.omancode.r.test;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.omancode.r.RFace;
+import org.omancode.r.RFaceException;
+import org.rosuda.REngine.REXPLogical;
+import org.rosuda.REngine.RList;
+
+public class RSupportLibraryTest {
+
+	private static RFace rInterface;
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		try {
+			rInterface = RFace.getInstance(null);
+		} catch (RFaceException e) {
+			System.err.println(e.getMessage());
+			System.err.println("Check: ");
+			System.err
+					.println("1) the location of jri.dll is specified, eg: -Djava.library.path=\"C:\\Program Files\\R\\R-2.11.1\\library\\rJava\\jri\"");
+			System.err
+					.println("2) R bin dir is on the path, eg: PATH=%PATH%;C:\\Program Files\\R\\R-2.11.1\\bin");
+			throw new RuntimeException(e.getMessage(), e);
+		}
+		rInterface.loadRSupportFunctions();
+	}
+
+	@Test
+	public void testGetObjects() throws Exception {
+		rInterface.parseEvalTry("supportLibraryTestDf <- data.frame(a = 1:3)");
+		try {
+			RList result = rInterface.parseEvalTryAsRList(".getObjects()");
+			List<String> names =
+					Arrays.asList(result.at("names").asStrings());
+			int index = names.indexOf("supportLibraryTestDf");
+			assertTrue(index >= 0);
+			assertEquals("data.frame", result.at("class").asStrings()[index]);
+		} finally {
+			rInterface.parseEvalTry("rm(supportLibraryTestDf)");
+		}
+	}
+
+	@Test
+	public void testNotInGlobalEnv() throws Exception {
+		REXPLogical exists =
+				(REXPLogical) rInterface
+						.parseEvalTry("exists(\".getObjects\", "
+								+ "envir = .GlobalEnv, inherits = FALSE)");
+		assertTrue(exists.isFALSE()[0]);
+	}
+
+}
@@ -0,0 +1,153 @@
+package org.omancode.r.test;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+import org.omancode.r.types.REXPUtil;
+import org.omancode.r.types.RVector;
+import org.rosuda.REngine.REXPDouble;
+import org.rosuda.REngine.REXPInteger;
+import org.rosuda.REngine.REXPVector;
+
+public class RVectorConversionTest {
+
+	@Test
+	public void testExportDoublesBelowCapacity() throws Exception {
+		RVector vector = new RVector("d", Double.class, 10);
+		vector.addDoubles(new double[] { 1, 2, 3 });
+
+		REXPVector rexp = vector.getREXPVector();
+		assertEquals(3, rexp.length());
+		assertArrayEquals(new double[] { 1, 2, 3 }, rexp.asDoubles(), 0);
+	}
+
+	@Test
+	public void testExportDoublesAtCapacity() throws Exception {
+		RVector vector = new RVector("d", Double.class, 3);
+		vector.addDoubles(new double[] { 1, 2, 3 });
+
+		REXPVector rexp = vector.getREXPVector();
+		assertEquals(3, rexp.length());
+		assertArrayEquals(new double[] { 1, 2, 3 }, rexp.asDoubles(), 0);
+	}
+
+	@Test
+	public void testExportIntsBelowCapacity() throws Exception {
+		RVector vector = new RVector("i", Integer.class, 10);
+		vector.addInts(new int[] { 4, REXPInteger.NA });
+
+		REXPVector rexp = vector.getREXPVector();
+		assertEquals(2, rexp.length());
+		assertArrayEquals(new int[] { 4, REXPInteger.NA }, rexp.asIntegers());
+	}
+
+	@Test
+	public void testExportLongsBelowCapacity() throws Exception {
+		RVector vector = new RVector("l", Long.class, 10);
+		vector.addLongs(new long[] { 5, Long.MAX_VALUE });
+
+		REXPVector rexp = vector.getREXPVector();
+		assertEquals(2, rexp.length());
+		assertArrayEquals(new long[] { 5, Long.MAX_VALUE }, REXPUtil
+				.fromInteger64((REXPDouble) rexp));
+	}
+
+	@Test
+	public void testAddIntsWidensNA() throws Exception {
+		RVector vector = new RVector("d", Double.class, 2);
+		vector.addInts(new int[] { 0, 7, REXPInteger.NA, -1 }, 1, 3);
+
+		assertEquals(3, vector.size());
+		assertEquals(7, vector.getDouble(0), 0);
+		assertTrue(vector.isNA(1));
+		assertTrue(REXPDouble.isNA(vector.getDouble(1)));
+		assertEquals(-1, vector.getDouble(2), 0);
+		assertEquals(REXPInteger.NA, vector.getInt(1));
+
+		double[] exported = vector.getREXPVector().asDoubles();
+		assertEquals(3, exported.length);
+		assertTrue(REXPDouble.isNA(exported[1]));
+	}
+
+	@Test
+	public void testInteger64RoundTrip() throws Exception {
+		long[] longs =
+				new long[] { 0, -1, Long.MAX_VALUE, Long.MIN_VALUE + 1,
+						REXPUtil.NA_INTEGER64 };
+
+		REXPDouble rexp = REXPUtil.toInteger64(longs);
+		assertTrue(REXPUtil.isInteger64(rexp));
+		assertArrayEquals(new String[] { REXPUtil.INTEGER64 }, rexp
+				.getAttribute("class").asStrings());
+		assertArrayEquals(longs, REXPUtil.fromInteger64(rexp));
+		assertFalse(REXPUtil.isInteger64(new REXPDouble(1)));
+	}
+
+	@Test
+	public void testLongNA() throws Exception {
+		RVector vector = new RVector("l", Long.class, 3);
+		vector.addLong(Long.MIN_VALUE + 1);
+		vector.addValue(null);
+		vector.addLong(REXPUtil.NA_INTEGER64);
+
+		assertFalse(vector.isNA(0));
+		assertTrue(vector.isNA(1));
+		assertTrue(vector.isNA(2));
+		assertEquals(REXPUtil.NA_INTEGER64, vector.getLong(1));
+		assertEquals(REXPInteger.NA, vector.getInt(1));
+		assertTrue(REXPDouble.isNA(vector.getDouble(1)));
+
+		assertArrayEquals(new long[] { Long.MIN_VALUE + 1,
+				REXPUtil.NA_INTEGER64, REXPUtil.NA_INTEGER64 }, REXPUtil
+				.fromInteger64((REXPDouble) vector.getREXPVector()));
+	}
+
+	@Test
+	public void testGetLongOfDoubles() throws Exception {
+		RVector vector = new RVector("d", Double.class, 4);
+		vector.addDouble(3.9);
+		vector.addValue(null);
+		vector.addDouble(Double.NaN);
+		vector.addDouble(-2);
+
+		assertEquals(3, vector.getLong(0));
+		assertEquals(REXPUtil.NA_INTEGER64, vector.getLong(1));
+		assertEquals(REXPUtil.NA_INTEGER64, vector.getLong(2));
+		assertEquals(-2, vector.getLong(3));
+	}
+
+	@Test
+	public void testGetLongOfInts() throws Exception {
+		RVector vector = new RVector("i", Integer.class, 2);
+		vector.addInt(Integer.MAX_VALUE);
+		vector.addValue(null);
+
+		assertEquals(Integer.MAX_VALUE, vector.getLong(0));
+		assertEquals(REXPUtil.NA_INTEGER64, vector.getLong(1));
+	}
+
+	@Test
+	public void testLongsAsDoubles() throws Exception {
+		RVector vector = new RVector("l", Long.class, 3);
+		vector.addLong(1L << 53);
+		vector.addValue(null);
+		vector.addLong(-7);
+
+		RVector doubles = vector.longsAsDoubles();
+		assertEquals(Double.class, doubles.getType());
+		assertEquals("l", doubles.getName());
+		assertEquals(3, doubles.size());
+		assertEquals(9007199254740992.0, doubles.getDouble(0), 0);
+		assertTrue(doubles.isNA(1));
+		assertTrue(REXPDouble.isNA(doubles.getDouble(1)));
+		assertEquals(-7, doubles.getDouble(2), 0);
+
+		double[] exported = doubles.getREXPVector().asDoubles();
+		assertTrue(REXPDouble.isNA(exported[1]));
+		assertFalse(REXPUtil.isInteger64(doubles.getREXPVector()));
+
+		// not a long vector
+		assertSame(doubles, doubles.longsAsDoubles());
+	}
+
+}
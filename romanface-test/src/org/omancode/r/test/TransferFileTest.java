@@ -0,0 +1,144 @@
+package org.omancode.r.test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.omancode.r.types.FactorList;
+import org.omancode.r.types.RVector;
+import org.omancode.r.types.RVectorList;
+import org.omancode.r.types.TransferFile;
+
+public class TransferFileTest {
+
+	private enum Colour {
+		RED, GREEN, BLUE
+	}
+
+	private File file;
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("TransferFileTest", ".bin");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		file.delete();
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		RVector doubles = new RVector("d", Double.class, 3);
+		doubles.addDouble(1.5);
+		doubles.addValue(null);
+		doubles.addDouble(-2);
+
+		RVector ints = new RVector("i", Integer.class, 3);
+		ints.addInt(1);
+		ints.addInt(Integer.MIN_VALUE + 1);
+		ints.addValue(null);
+
+		RVector logicals = new RVector("l", Boolean.class, 3);
+		logicals.addValue(null);
+		logicals.addBoolean(true);
+		logicals.addBoolean(false);
+
+		RVector strings = new RVector("s", String.class, 3);
+		strings.addValue("na\u00efve");
+		strings.addValue(null);
+		strings.addValue("");
+
+		RVector factor = new RVector("f", Colour.class, 3);
+		factor.addValue(Colour.GREEN);
+		factor.addValue(Colour.GREEN);
+		factor.addValue(null);
+
+		RVector longs = new RVector("n", Long.class, 3);
+		longs.addLong(Long.MAX_VALUE);
+		longs.addValue(null);
+		longs.addLong(Long.MIN_VALUE + 1);
+
+		TransferFile.write(Arrays.asList(doubles, ints, logicals, strings,
+				factor, longs), file);
+		RVectorList read = TransferFile.read(file);
+
+		assertEquals(6, read.size());
+		for (RVector vector : read) {
+			assertEquals(3, vector.size());
+		}
+
+		RVector d = read.get(0);
+		assertEquals("d", d.getName());
+		assertEquals(1.5, d.getDouble(0), 0);
+		assertTrue(d.isNA(1));
+		assertEquals(-2, d.getDouble(2), 0);
+
+		RVector i = read.get(1);
+		assertEquals(1, i.getInt(0));
+		assertEquals(Integer.MIN_VALUE + 1, i.getInt(1));
+		assertTrue(i.isNA(2));
+
+		RVector l = read.get(2);
+		assertTrue(l.isNA(0));
+		assertTrue(l.getBoolean(1));
+		assertFalse(l.isNA(2));
+		assertFalse(l.getBoolean(2));
+
+		RVector s = read.get(3);
+		assertEquals("na\u00efve", s.getString(0));
+		assertNull(s.getString(1));
+		assertEquals("", s.getString(2));
+
+		RVector f = read.get(4);
+		assertTrue(f.getValues() instanceof FactorList);
+		assertArrayEquals(new String[] { "RED", "GREEN", "BLUE" },
+				((FactorList) f.getValues()).getLevels());
+		assertEquals("GREEN", f.getString(0));
+		assertEquals(2, f.getInt(1));
+		assertNull(f.getString(2));
+
+		RVector n = read.get(5);
+		assertEquals(Long.MAX_VALUE, n.getLong(0));
+		assertTrue(n.isNA(1));
+		assertEquals(Long.MIN_VALUE + 1, n.getLong(2));
+	}
+
+	@Test
+	public void testEmpty() throws IOException {
+		List<RVector> vectors =
+				Arrays.asList(new RVector("d", Double.class, 0), new RVector(
+						"s", String.class, 0));
+		TransferFile.write(vectors, file);
+
+		RVectorList read = TransferFile.read(file);
+		assertEquals(2, read.size());
+		assertEquals("s", read.get(1).getName());
+		assertEquals(0, read.get(1).size());
+	}
+
+	@Test(expected = IOException.class)
+	public void testNulInString() throws IOException {
+		RVector strings = new RVector("s", String.class, 1);
+		strings.addValue("a\0b");
+		TransferFile.write(Arrays.asList(strings), file);
+	}
+
+	@Test(expected = IOException.class)
+	public void testNulInName() throws IOException {
+		TransferFile.write(Arrays.asList(new RVector("a\0b", Double.class,
+				0)), file);
+	}
+
+	@Test(expected = IOException.class)
+	public void testNotTransferFile() throws IOException {
+		TransferFile.read(file);
+	}
+
+}
@@ -0,0 +1,182 @@
+package org.omancode.r.types;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.rosuda.REngine.REXP;
+import org.rosuda.REngine.REXPDouble;
+import org.rosuda.REngine.REXPFactor;
+import org.rosuda.REngine.REXPInteger;
+import org.rosuda.REngine.REXPLogical;
+import org.rosuda.REngine.REXPString;
+import org.rosuda.REngine.RList;
+
+/**
+ * In {@code org.omancode.r.types} rather than {@code org.omancode.r.test}
+ * because {@link BeanAccessorPlan} is package private, and the number of fill
+ * tasks must be set independently of the number of processors.
+ */
+public class BeanAccessorPlanTest {
+
+	public enum Colour {
+		RED, GREEN, BLUE
+	}
+
+	public static class Bean {
+		private final int row;
+
+		public Bean(int row) {
+			this.row = row;
+		}
+
+		public boolean isFlag() {
+			return row % 3 == 0;
+		}
+
+		public Boolean getMaybe() {
+			return row % 5 == 0 ? null : Boolean.valueOf(row % 2 == 0);
+		}
+
+		public Colour getColour() {
+			return row % 7 == 0 ? null : Colour.values()[row % 3];
+		}
+
+		public String getName() {
+			return row % 11 == 0 ? null : "name" + row % 13;
+		}
+
+		public long getId() {
+			return Long.MAX_VALUE - row;
+		}
+
+		public double getValue() {
+			return row % 17 == 0 ? Double.NaN : row / 4.0;
+		}
+
+		public Double getMaybeValue() {
+			return row % 19 == 0 ? null : Double.valueOf(-row);
+		}
+
+		public int getCount() {
+			return row;
+		}
+	}
+
+	/**
+	 * More than one 64 element word per task.
+	 */
+	private static final int NUM_ROWS = 1000;
+
+	private List<Bean> beans;
+
+	private ExecutorService executor;
+
+	@Before
+	public void setUp() throws Exception {
+		beans = new ArrayList<Bean>(NUM_ROWS);
+		for (int i = 0; i < NUM_ROWS; i++) {
+			beans.add(new Bean(i));
+		}
+		executor = Executors.newFixedThreadPool(4);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		executor.shutdownNow();
+	}
+
+	private RList fillSequentially() throws Exception {
+		return new RVectorList(beans, Object.class).asRList();
+	}
+
+	private RList fillConcurrently(int numTasks) throws Exception {
+		BeanAccessorPlan plan =
+				BeanAccessorPlan.forBean(beans.get(0), Object.class);
+		RVectorList vectors =
+				new RVectorList(plan.getNames(), plan.getTypes(), beans
+						.size());
+		plan.fill(beans, vectors, executor, numTasks);
+		return vectors.asRList();
+	}
+
+	@Test
+	public void testSameVectors() throws Exception {
+		RList expected = fillSequentially();
+		assertEquals(8, expected.size());
+
+		for (int numTasks : new int[] { 1, 3, 4, 7 }) {
+			assertSameVectors(expected, fillConcurrently(numTasks));
+		}
+		assertSameVectors(expected, new RVectorList(beans, Object.class,
+				executor).asRList());
+	}
+
+	@Test
+	public void testTypes() throws Exception {
+		RList rlist = fillConcurrently(4);
+		assertTrue(rlist.at("flag") instanceof REXPLogical);
+		assertTrue(rlist.at("maybe") instanceof REXPLogical);
+		assertTrue(rlist.at("colour") instanceof REXPFactor);
+		assertTrue(rlist.at("name") instanceof REXPString);
+		assertTrue(REXPUtil.isInteger64(rlist.at("id")));
+		assertTrue(rlist.at("value") instanceof REXPDouble);
+		assertTrue(rlist.at("count") instanceof REXPInteger);
+
+		// spot check the last, partial, range
+		int row = NUM_ROWS - 1;
+		assertTrue(REXPLogical.isNA(rlist.at("maybe").asBytes()[row - 4]));
+		assertEquals(Long.MAX_VALUE - row, REXPUtil
+				.fromInteger64((REXPDouble) rlist.at("id"))[row]);
+		assertEquals(new Bean(row).getName(),
+				rlist.at("name").asStrings()[row]);
+	}
+
+	private static void assertSameVectors(RList expected, RList actual)
+			throws Exception {
+		assertEquals(expected.size(), actual.size());
+
+		for (int i = 0; i < expected.size(); i++) {
+			String name = (String) expected.keyAt(i);
+			REXP exp = expected.at(i);
+			REXP act = actual.at(name);
+			assertNotNull(name, act);
+			assertEquals(name, exp.getClass(), act.getClass());
+
+			if (exp instanceof REXPFactor) {
+				assertArrayEquals(name, ((REXPFactor) exp).asFactor()
+						.levels(), ((REXPFactor) act).asFactor().levels());
+				assertArrayEquals(name, exp.asIntegers(), act.asIntegers());
+			} else if (exp instanceof REXPDouble) {
+				// compare bits, so NA and NaN are told apart
+				double[] e = exp.asDoubles();
+				double[] a = act.asDoubles();
+				assertEquals(name, e.length, a.length);
+				for (int j = 0; j < e.length; j++) {
+					assertEquals(name + "[" + j + "]", Double
+							.doubleToRawLongBits(e[j]), Double
+							.doubleToRawLongBits(a[j]));
+				}
+			} else if (exp instanceof REXPInteger) {
+				assertArrayEquals(name, exp.asIntegers(), act.asIntegers());
+			} else if (exp instanceof REXPLogical) {
+				assertArrayEquals(name, exp.asBytes(), act.asBytes());
+			} else {
+				assertArrayEquals(name, exp.asStrings(), act.asStrings());
+			}
+
+			REXP expClass = exp.getAttribute("class");
+			REXP actClass = act.getAttribute("class");
+			assertArrayEquals(name, expClass == null ? null : expClass
+					.asStrings(), actClass == null ? null : actClass
+					.asStrings());
+		}
+	}
+
+}
@@ -0,0 +1,270 @@
+package org.omancode.r;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import net.casper.data.model.CBuilder;
+
+import org.omancode.r.types.CBuildFromREXP;
+import org.rosuda.REngine.REXP;
+import org.rosuda.REngine.REXPMismatchException;
+
+/**
+ * Builds a Casper dataset from an R dataframe or matrix by fetching it from R
+ * a window of rows at a time, rather than all at once. At most two windows are
+ * held in Java at a time: the window being read, and the next window, which
+ * is fetched in the background while the current one is read. This bounds
+ * memory use by the window size, and allows rows to be read as soon as the
+ * first window has arrived.
+ * 
+ * Windows are fetched via an {@link RFaceAsync}, so they are evaluated on its
+ * R thread, in turn with any other work submitted to it. Other use of the
+ * underlying {@link RFace} while the builder is open must also go through the
+ * same {@link RFaceAsync}.
+ * 
+ * The R object must be subsettable by row, ie: {@code x[i:j, , drop = FALSE]}.
+ * 
+ * Each window is converted as per {@link CBuildFromREXP}.
+ * 
+ * @author Oliver Mannion
+ * @version $Revision$
+ */
+public class CBuildFromRWindowed implements CBuilder {
+
+	/**
+	 * Default number of rows per window.
+	 */
+	public static final int DEFAULT_WINDOW_SIZE = 50000;
+
+	private final RFaceAsync rAsync;
+
+	private final String objectName;
+
+	private final String name;
+
+	private final int windowSize;
+
+	private final int numRows;
+
+	private final String[] columnNames;
+
+	private final Class[] columnTypes;
+
+	/**
+	 * First window, kept from construction until it has been read, so it
+	 * isn't fetched twice.
+	 */
+	private CBuilder firstWindow;
+
+	/**
+	 * Window being read.
+	 */
+	private CBuilder current;
+
+	/**
+	 * Index of the first row of the window after {@link #current}.
+	 */
+	private int nextStart;
+
+	/**
+	 * Window after {@link #current}, or {@code null} if there are no more
+	 * windows.
+	 */
+	private Future<REXP> next;
+
+	/**
+	 * Create a builder with a window size of {@link #DEFAULT_WINDOW_SIZE}.
+	 * 
+	 * @param rAsync
+	 *            r interface to fetch windows via
+	 * @param objectName
+	 *            name of the R dataframe or matrix
+	 * @param name
+	 *            name of dataset
+	 * @throws RFaceException
+	 *             if problem fetching the first window
+	 */
+	public CBuildFromRWindowed(RFaceAsync rAsync, String objectName,
+			String name) throws RFaceException {
+		this(rAsync, objectName, name, DEFAULT_WINDOW_SIZE);
+	}
+
+	/**
+	 * Create a builder. Fetches the first window to determine the columns.
+	 * 
+	 * @param rAsync
+	 *            r interface to fetch windows via
+	 * @param objectName
+	 *            name of the R dataframe or matrix
+	 * @param name
+	 *            name of dataset
+	 * @param windowSize
+	 *            number of rows fetched from R at a time
+	 * @throws RFaceException
+	 *             if problem fetching the first window
+	 */
+	public CBuildFromRWindowed(RFaceAsync rAsync, String objectName,
+			String name, int windowSize) throws RFaceException {
+		if (windowSize < 1) {
+			throw new IllegalArgumentException(
+					"Window size must be at least 1");
+		}
+
+		this.rAsync = rAsync;
+		this.objectName = objectName;
+		this.name = name;
+		this.windowSize = windowSize;
+
+		try {
+			numRows =
+					await(rAsync.evalAsync("NROW(" + objectName + ")"))
+							.asInteger();
+		} catch (REXPMismatchException e) {
+			throw new RFaceException(e.getMessage(), e);
+		}
+
+		firstWindow = new CBuildFromREXP(await(fetch(0)), name);
+		columnNames = firstWindow.getColumnNames();
+		columnTypes = firstWindow.getColumnTypes();
+	}
+
+	/**
+	 * Submit a fetch of the window of rows starting at {@code start}.
+	 * 
+	 * @param start
+	 *            index of the first row (0-based)
+	 * @return future window
+	 */
+	private Future<REXP> fetch(int start) {
+		int end = Math.min(start + windowSize, numRows);
+		return rAsync.evalAsync(objectName + "[seq.int(" + (start + 1)
+				+ ", length.out = " + (end - start) + "), , drop = FALSE]");
+	}
+
+	/**
+	 * Wait for a fetch to complete.
+	 * 
+	 * @param fetch
+	 *            future result of the fetch
+	 * @return result
+	 * @throws RFaceException
+	 *             if problem fetching, or interrupted while waiting
+	 */
+	private REXP await(Future<REXP> fetch) throws RFaceException {
+		try {
+			return fetch.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RFaceException("Interrupted fetching " + objectName, e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RFaceException) {
+				throw (RFaceException) cause;
+			}
+			throw new RFaceException(cause.getMessage(), cause);
+		}
+	}
+
+	/**
+	 * Start fetching the window after {@link #current} in the background, if
+	 * there is one.
+	 */
+	private void prefetch() {
+		if (nextStart >= numRows) {
+			next = null;
+			return;
+		}
+
+		next = fetch(nextStart);
+		nextStart += windowSize;
+	}
+
+	/**
+	 * Move to the next window, waiting for it to arrive if need be.
+	 * 
+	 * @throws IOException
+	 *             if problem fetching the window
+	 */
+	private void advance() throws IOException {
+		current = new CBuildFromREXP(await(next), name);
+		current.open();
+		prefetch();
+	}
+
+	@Override
+	public void open() throws IOException {
+		if (next != null) {
+			// fetches run in turn on the R thread, so a fetch already
+			// running completes before the one below starts
+			next.cancel(false);
+		}
+
+		current =
+				(firstWindow == null) ? new CBuildFromREXP(
+						await(fetch(0)), name) : firstWindow;
+		firstWindow = null;
+		current.open();
+		nextStart = windowSize;
+		prefetch();
+	}
+
+	@Override
+	public Object[] readRow() throws IOException {
+		Object[] row = current.readRow();
+
+		while (row == null && next != null) {
+			advance();
+			row = current.readRow();
+		}
+
+		return row;
+	}
+
+	@Override
+	public void close() {
+		if (next != null) {
+			next.cancel(false);
+			next = null;
+		}
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public String[] getColumnNames() {
+		return columnNames;
+	}
+
+	@Override
+	public Class[] getColumnTypes() {
+		return columnTypes;
+	}
+
+	/**
+	 * No primary key.
+	 * 
+	 * @return null
+	 */
+	@Override
+	public String[] getPrimaryKeyColumns() {
+		return null;
+	}
+
+	/**
+	 * Returns a LinkedHashMap so that rows will be in insertion order (because
+	 * we also have a null primary key).
+	 * 
+	 * @return linked hash map
+	 */
+	@Override
+	public Map getConcreteMap() {
+		return new LinkedHashMap();
+	}
+
+}
@@ -0,0 +1,277 @@
+package org.omancode.r;
+
+import java.beans.IntrospectionException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.omancode.r.types.RVector;
+import org.omancode.r.types.RVectorList;
+import org.rosuda.REngine.REXPGenericVector;
+
+/**
+ * Streams rows or beans into an R dataframe in fixed size chunks. Only one
+ * chunk is held in Java at a time, so memory use is bounded by the chunk size
+ * rather than the size of the dataset. Each chunk is transferred to R in a
+ * single assign and appended to the dataframe's columns in R by a single
+ * evaluation.
+ * 
+ * If the number of rows is known in advance, the columns are allocated in R
+ * at their full length when the first chunk arrives, and each chunk is then
+ * written into place. Otherwise the columns grow as chunks are appended.
+ * 
+ * eg:
+ * 
+ * <pre>
+ * DataFrameWriter writer = new DataFrameWriter(rInterface, &quot;people&quot;);
+ * writer.writeBeans(people.iterator(), Object.class, people.size());
+ * </pre>
+ * 
+ * @author Oliver Mannion
+ * @version $Revision$
+ */
+public class DataFrameWriter {
+
+	/**
+	 * Default number of rows per chunk.
+	 */
+	public static final int DEFAULT_CHUNK_SIZE = 10000;
+
+	/**
+	 * Used to give each writer its own R environment.
+	 */
+	private static final AtomicInteger NEXT_ID = new AtomicInteger();
+
+	/**
+	 * Name of the R object each chunk is assigned to.
+	 */
+	private static final String CHUNK = ".chunk.";
+
+	private final RFace rInterface;
+
+	private final String name;
+
+	private final int chunkSize;
+
+	/**
+	 * Name of the R environment holding the columns while they are written.
+	 */
+	private final String env;
+
+	/**
+	 * Create a writer with a chunk size of {@link #DEFAULT_CHUNK_SIZE}.
+	 * 
+	 * @param rInterface
+	 *            r interface
+	 * @param name
+	 *            name of the dataframe to create in R
+	 */
+	public DataFrameWriter(RFace rInterface, String name) {
+		this(rInterface, name, DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * Create a writer.
+	 * 
+	 * @param rInterface
+	 *            r interface
+	 * @param name
+	 *            name of the dataframe to create in R
+	 * @param chunkSize
+	 *            number of rows transferred to R at a time
+	 */
+	public DataFrameWriter(RFace rInterface, String name, int chunkSize) {
+		if (chunkSize < 1) {
+			throw new IllegalArgumentException("Chunk size must be at least 1");
+		}
+		this.rInterface = rInterface;
+		this.name = name;
+		this.chunkSize = chunkSize;
+		this.env = ".dataFrameWriter" + NEXT_ID.getAndIncrement() + ".";
+	}
+
+	/**
+	 * Write beans to the dataframe. Columns are created for the bean
+	 * properties as per {@link RVectorList#RVectorList(java.util.Collection,
+	 * Class)}.
+	 * 
+	 * @param beans
+	 *            beans, all of the same class
+	 * @param stopClass
+	 *            Columns are created for all getter methods that are defined by
+	 *            {@code stopClass}'s subclasses.
+	 * @param numRows
+	 *            number of beans, or {@code -1} if not known
+	 * @throws IntrospectionException
+	 *             if problem reading bean properties
+	 * @throws RFaceException
+	 *             if problem writing to R
+	 */
+	public void writeBeans(Iterator<?> beans, Class<?> stopClass, int numRows)
+			throws IntrospectionException, RFaceException {
+		List<Object> chunk = new ArrayList<Object>(chunkSize);
+		boolean first = true;
+		boolean written = false;
+
+		try {
+			while (beans.hasNext()) {
+				chunk.add(beans.next());
+
+				if (chunk.size() == chunkSize || !beans.hasNext()) {
+					writeChunk(new RVectorList(chunk, stopClass), first,
+							numRows);
+					first = false;
+					chunk.clear();
+				}
+			}
+
+			finish(first);
+			written = true;
+		} finally {
+			cleanUp(!written);
+		}
+	}
+
+	/**
+	 * Write rows to the dataframe. Columns of a type that cannot be handled
+	 * are silently ignored, as per
+	 * {@link RVectorList#RVectorList(String[], Class[], int)}.
+	 * 
+	 * @param rows
+	 *            rows, each with a value for each of {@code names}
+	 * @param names
+	 *            column names
+	 * @param types
+	 *            column types
+	 * @param numRows
+	 *            number of rows, or {@code -1} if not known
+	 * @throws RFaceException
+	 *             if problem writing to R
+	 */
+	public void writeRows(Iterator<Object[]> rows, String[] names,
+			Class<?>[] types, int numRows) throws RFaceException {
+		boolean first = true;
+		boolean written = false;
+
+		try {
+			while (rows.hasNext()) {
+				RVectorList vectors = new RVectorList(names, types, chunkSize);
+				int[] columns = columnIndices(vectors, names);
+
+				for (int n = 0; n < chunkSize && rows.hasNext(); n++) {
+					Object[] row = rows.next();
+					for (int i = 0; i < columns.length; i++) {
+						vectors.get(i).addValue(row[columns[i]]);
+					}
+				}
+
+				writeChunk(vectors, first, numRows);
+				first = false;
+			}
+
+			finish(first);
+			written = true;
+		} finally {
+			cleanUp(!written);
+		}
+	}
+
+	/**
+	 * Get the index in {@code names} of each vector.
+	 * 
+	 * @param vectors
+	 *            vectors, a subset of {@code names}
+	 * @param names
+	 *            names
+	 * @return index of each vector
+	 */
+	private static int[] columnIndices(List<RVector> vectors, String[] names) {
+		int[] columns = new int[vectors.size()];
+		int col = 0;
+		for (int i = 0; i < columns.length; i++) {
+			String vectorName = vectors.get(i).getName();
+			while (!names[col].equals(vectorName)) {
+				col++;
+			}
+			columns[i] = col++;
+		}
+		return columns;
+	}
+
+	/**
+	 * Transfer a chunk to R and append it to the columns.
+	 * 
+	 * @param vectors
+	 *            chunk
+	 * @param first
+	 *            is this the first chunk?
+	 * @param numRows
+	 *            total number of rows, or {@code -1} if not known
+	 * @throws RFaceException
+	 *             if problem writing to R
+	 */
+	private void writeChunk(RVectorList vectors, boolean first, int numRows)
+			throws RFaceException {
+		rInterface.assign(CHUNK, new REXPGenericVector(vectors.asRList()));
+
+		if (first) {
+			// create columns of the same type as the chunk's, either
+			// at full length (filled with NA) or empty
+			rInterface.parseEvalTry(env + " <- new.env(); " + "with(" + env
+					+ ", { cols <- lapply(" + CHUNK
+					+ ", function(col) rep(col[NA_integer_], "
+					+ Math.max(numRows, 0) + ")); n <- 0L })", true);
+		}
+
+		rInterface.parseEvalTry("with(" + env + ", { i <- n + seq_along("
+				+ CHUNK + "[[1]]); " + "for (j in seq_along(" + CHUNK
+				+ ")) cols[[j]][i] <- " + CHUNK + "[[j]]; "
+				+ "n <- n + length(i) }); rm(" + CHUNK + ")", true);
+	}
+
+	/**
+	 * Create the dataframe from the written columns.
+	 * 
+	 * @param empty
+	 *            were no rows written?
+	 * @throws RFaceException
+	 *             if problem creating the dataframe
+	 */
+	private void finish(boolean empty) throws RFaceException {
+		if (empty) {
+			rInterface.assign(name, "data.frame()");
+			return;
+		}
+
+		// truncate if fewer rows were written than expected, then make
+		// the list a dataframe without copying the columns
+		rInterface.assign(name, "with(" + env + ", { "
+				+ "if (length(cols[[1]]) != n) "
+				+ "cols <- lapply(cols, function(col) col[seq_len(n)]); "
+				+ "attr(cols, \"row.names\") <- "
+				+ "if (n > 0) c(NA_integer_, -n) else integer(0); "
+				+ "class(cols) <- \"data.frame\"; cols })");
+	}
+
+	/**
+	 * Remove the columns' environment and any chunk left by a failure.
+	 * 
+	 * @param failed
+	 *            has writing failed? If so, a problem removing is ignored so
+	 *            that it doesn't mask the exception that caused the failure.
+	 * @throws RFaceException
+	 *             if problem removing after writing succeeded
+	 */
+	private void cleanUp(boolean failed) throws RFaceException {
+		try {
+			rInterface.parseEvalTry("suppressWarnings(rm(" + env + ", "
+					+ CHUNK + "))", true);
+		} catch (RFaceException e) {
+			if (!failed) {
+				throw e;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,230 @@
+package org.omancode.r;
+
+import org.rosuda.REngine.REXP;
+
+/**
+ * The result of evaluating an R expression without throwing an exception.
+ * Holds either the value returned by the expression, or the error condition
+ * if evaluation failed, ie: its message and, where available, its call and
+ * class. Also holds the messages of any warnings generated during evaluation.
+ * 
+ * @author Oliver Mannion
+ * @version $Revision$
+ */
+public class EvalResult {
+
+	private static final String[] NONE = new String[0];
+
+	private final String expr;
+
+	private final REXP value;
+
+	private final String errorMessage;
+
+	private final String errorCall;
+
+	private final String[] errorClass;
+
+	private final String[] warnings;
+
+	/**
+	 * Master constructor.
+	 * 
+	 * @param expr
+	 *            expression evaluated
+	 * @param value
+	 *            value returned, or {@code null} if there was an error
+	 * @param errorMessage
+	 *            error message, or {@code null} if there was no error
+	 * @param errorCall
+	 *            deparsed call that generated the error, or {@code null}
+	 * @param errorClass
+	 *            class of the error condition, or {@code null}
+	 * @param warnings
+	 *            warning messages, or {@code null} if none
+	 */
+	private EvalResult(String expr, REXP value, String errorMessage,
+			String errorCall, String[] errorClass, String[] warnings) {
+		this.expr = expr;
+		this.value = value;
+		this.errorMessage = errorMessage;
+		this.errorCall = errorCall;
+		this.errorClass = errorClass == null ? NONE : errorClass;
+		this.warnings = warnings == null ? NONE : warnings;
+	}
+
+	/**
+	 * Create a successful result.
+	 * 
+	 * @param expr
+	 *            expression evaluated
+	 * @param value
+	 *            value returned
+	 * @return result
+	 */
+	public static EvalResult value(String expr, REXP value) {
+		return value(expr, value, null);
+	}
+
+	/**
+	 * Create a successful result that generated warnings.
+	 * 
+	 * @param expr
+	 *            expression evaluated
+	 * @param value
+	 *            value returned
+	 * @param warnings
+	 *            warning messages
+	 * @return result
+	 */
+	public static EvalResult value(String expr, REXP value, String[] warnings) {
+		return new EvalResult(expr, value, null, null, null, warnings);
+	}
+
+	/**
+	 * Create a failed result.
+	 * 
+	 * @param expr
+	 *            expression evaluated
+	 * @param errorMessage
+	 *            error message
+	 * @return result
+	 */
+	public static EvalResult error(String expr, String errorMessage) {
+		return error(expr, errorMessage, null, null, null);
+	}
+
+	/**
+	 * Create a failed result from an R error condition.
+	 * 
+	 * @param expr
+	 *            expression evaluated
+	 * @param errorMessage
+	 *            condition message
+	 * @param errorCall
+	 *            deparsed condition call, or {@code null}
+	 * @param errorClass
+	 *            condition class, or {@code null}
+	 * @param warnings
+	 *            warning messages generated before the error, or {@code null}
+	 * @return result
+	 */
+	public static EvalResult error(String expr, String errorMessage,
+			String errorCall, String[] errorClass, String[] warnings) {
+		return new EvalResult(expr, null, errorMessage, errorCall,
+				errorClass, warnings);
+	}
+
+	/**
+	 * Get the expression that was evaluated.
+	 * 
+	 * @return expression
+	 */
+	public String getExpr() {
+		return expr;
+	}
+
+	/**
+	 * Did evaluation fail?
+	 * 
+	 * @return {@code true} if there was an error
+	 */
+	public boolean isError() {
+		return errorMessage != null;
+	}
+
+	/**
+	 * Get the value returned by the expression.
+	 * 
+	 * @return value, or {@code null} if there was an error.
+	 */
+	public REXP getValue() {
+		return value;
+	}
+
+	/**
+	 * Get the error message.
+	 * 
+	 * @return error message, or {@code null} if there was no error.
+	 */
+	public String getErrorMessage() {
+		return errorMessage;
+	}
+
+	/**
+	 * Get the call that generated the error, eg: {@code log(-1)}.
+	 * 
+	 * @return deparsed call, or {@code null} if there was no error or the
+	 *         error was raised at the top level of the expression.
+	 */
+	public String getErrorCall() {
+		return errorCall;
+	}
+
+	/**
+	 * Get the class of the error condition, eg:
+	 * {@code simpleError, error, condition}.
+	 * 
+	 * @return condition class, or an empty array if there was no error or the
+	 *         class is not known.
+	 */
+	public String[] getErrorClass() {
+		return errorClass.clone();
+	}
+
+	/**
+	 * Does the error condition inherit from {@code klass}?
+	 * 
+	 * @param klass
+	 *            condition class, eg: {@code simpleError}
+	 * @return {@code true} if there was an error of class {@code klass}.
+	 */
+	public boolean isError(String klass) {
+		for (String c : errorClass) {
+			if (c.equals(klass)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Get the messages of any warnings generated during evaluation.
+	 * 
+	 * @return warning messages, or an empty array if there were none.
+	 */
+	public String[] getWarnings() {
+		return warnings.clone();
+	}
+
+	/**
+	 * Were any warnings generated during evaluation?
+	 * 
+	 * @return {@code true} if there were warnings
+	 */
+	public boolean hasWarnings() {
+		return warnings.length > 0;
+	}
+
+	/**
+	 * Get the value returned by the expression, or throw the error as an
+	 * exception.
+	 * 
+	 * @return value
+	 * @throws RFaceException
+	 *             if there was an error
+	 */
+	public REXP getValueOrThrow() throws RFaceException {
+		if (isError()) {
+			throw new RFaceException(errorCall == null ? errorMessage
+					: "Error in " + errorCall + " : " + errorMessage);
+		}
+		return value;
+	}
+
+	@Override
+	public String toString() {
+		return isError() ? errorMessage : String.valueOf(value);
+	}
+
+}
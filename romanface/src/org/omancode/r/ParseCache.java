@@ -0,0 +1,196 @@
+package org.omancode.r;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bounded least recently used cache of parsed R expressions, keyed by the
+ * expression text. The parsed expression objects live in R, in the
+ * environment {@link #CACHE_ENV}. This class keeps track of which expression
+ * text maps to which object in that environment, and which objects need to be
+ * removed from it because they have been evicted.
+ * 
+ * @author Oliver Mannion
+ * @version $Revision$
+ */
+final class ParseCache {
+
+	/**
+	 * Name of the R environment (in the global environment) that holds the
+	 * parsed expressions. Starts with a dot so it is hidden from {@code ls()}
+	 * and not removed by {@code rm(list = ls())}.
+	 */
+	static final String CACHE_ENV = ".parseCache.";
+
+	/**
+	 * Class of the value returned in R in place of evaluating a cached parsed
+	 * expression that is no longer in {@link #CACHE_ENV}.
+	 */
+	static final String CACHE_MISS = ".parseCacheMiss.";
+
+	/**
+	 * Default maximum number of parsed expressions held.
+	 */
+	static final int DEFAULT_MAX_SIZE = 1000;
+
+	private final int maxSize;
+
+	/**
+	 * Expression text to R object name, in access order.
+	 */
+	private final Map<String, String> names;
+
+	/**
+	 * Names of evicted objects still to be removed from {@link #CACHE_ENV}.
+	 */
+	private final List<String> evicted = new ArrayList<String>();
+
+	private long nextId;
+
+	private long hits;
+
+	private long misses;
+
+	/**
+	 * Create cache.
+	 * 
+	 * @param maxSize
+	 *            maximum number of parsed expressions held
+	 */
+	@SuppressWarnings("serial")
+	ParseCache(int maxSize) {
+		this.maxSize = maxSize;
+		this.names = new LinkedHashMap<String, String>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+				if (size() > ParseCache.this.maxSize) {
+					evicted.add(eldest.getValue());
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Get the name of the parsed object for {@code expr}, recording a hit or
+	 * miss.
+	 * 
+	 * @param expr
+	 *            expression text
+	 * @return name of the parsed object in {@link #CACHE_ENV}, or {@code null}
+	 *         if {@code expr} has not been parsed.
+	 */
+	synchronized String get(String expr) {
+		String name = names.get(expr);
+		if (name == null) {
+			misses++;
+		} else {
+			hits++;
+		}
+		return name;
+	}
+
+	/**
+	 * Allocate a name for the parsed object of {@code expr}. The caller is
+	 * responsible for storing the parsed object under this name in
+	 * {@link #CACHE_ENV}, or calling {@link #remove(String)} if it cannot.
+	 * 
+	 * @param expr
+	 *            expression text
+	 * @return name of the parsed object in {@link #CACHE_ENV}
+	 */
+	synchronized String put(String expr) {
+		String name = "e" + nextId++;
+		names.put(expr, name);
+		return name;
+	}
+
+	/**
+	 * Remove {@code expr}, eg: because it failed to parse. Its object, if
+	 * any, will be removed from {@link #CACHE_ENV} with the other evictions.
+	 * 
+	 * @param expr
+	 *            expression text
+	 */
+	synchronized void remove(String expr) {
+		String name = names.remove(expr);
+		if (name != null) {
+			evicted.add(name);
+		}
+	}
+
+	/**
+	 * Return the names of the objects evicted since the last call, and forget
+	 * them. The objects must be removed from {@link #CACHE_ENV}, via
+	 * {@link #removeStatement(String[])}, before the cache is next used, or
+	 * the names given back via {@link #requeueEvictions(String[])} if that
+	 * fails.
+	 * 
+	 * @return names of evicted objects, possibly empty
+	 */
+	synchronized String[] drainEvictions() {
+		String[] names = evicted.toArray(new String[evicted.size()]);
+		evicted.clear();
+		return names;
+	}
+
+	/**
+	 * Queue evicted objects for removal again, eg: because the statement
+	 * removing them was not evaluated.
+	 * 
+	 * @param names
+	 *            names returned by {@link #drainEvictions()}
+	 */
+	synchronized void requeueEvictions(String[] names) {
+		evicted.addAll(Arrays.asList(names));
+	}
+
+	/**
+	 * Return an R statement that removes objects from {@link #CACHE_ENV}.
+	 * 
+	 * @param names
+	 *            names of objects, eg: from {@link #drainEvictions()}
+	 * @return R statement followed by a {@code ;}, or an empty string if
+	 *         {@code names} is empty.
+	 */
+	static String removeStatement(String[] names) {
+		if (names.length == 0) {
+			return "";
+		}
+
+		return "suppressWarnings(rm(list = "
+				+ RUtil.toVectorExprString(names) + ", envir = " + CACHE_ENV
+				+ ")); ";
+	}
+
+	/**
+	 * Empty the cache. The R environment must be recreated by the caller.
+	 */
+	synchronized void clear() {
+		names.clear();
+		evicted.clear();
+	}
+
+	/**
+	 * Number of lookups that found a parsed expression.
+	 * 
+	 * @return hits
+	 */
+	synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Number of lookups that did not find a parsed expression.
+	 * 
+	 * @return misses
+	 */
+	synchronized long getMisses() {
+		return misses;
+	}
+
+}
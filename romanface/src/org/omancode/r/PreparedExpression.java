@@ -0,0 +1,212 @@
+package org.omancode.r;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.rosuda.REngine.REXP;
+import org.rosuda.REngine.REXPMismatchException;
+import org.rosuda.REngine.REngine;
+import org.rosuda.REngine.REngineException;
+
+/**
+ * An R expression that has been parsed and byte-compiled once, and can then be
+ * executed repeatedly with different parameter values. Created by
+ * {@link RFace#prepare(String)}.
+ * 
+ * Parameters are written in the template as {@code .(name)}, eg:
+ * 
+ * <pre>
+ * PreparedExpression fit = rInterface.prepare(&quot;lm(y ~ x, data = .(df))&quot;);
+ * fit.bind(&quot;df&quot;, dataframe);
+ * REXP model = fit.execute();
+ * </pre>
+ * 
+ * Parameter values are assigned as {@link REXP}s directly into the
+ * expression's own parameter environment, so no expression strings are built
+ * or parsed per execution and values need no quoting. Bindings persist across
+ * executions until rebound. The expression itself is evaluated in the global
+ * environment, like {@link RFace#parseEvalTry(String)}, so other objects are
+ * resolved from, and assignments made to, the global environment. {@code .()}
+ * can only be used for parameters, see {@link RFace#prepare(String)}.
+ * 
+ * Requires an engine that supports references and environments, ie: JRI.
+ * 
+ * @author Oliver Mannion
+ * @version $Revision$
+ */
+public class PreparedExpression {
+
+	private final REngine engine;
+
+	private final String template;
+
+	private final List<String> parameterNames;
+
+	private final Set<String> bound = new HashSet<String>();
+
+	/**
+	 * Reference to the environment parameters are bound in. The compiled
+	 * expression refers to it directly.
+	 */
+	private REXP envRef;
+
+	/**
+	 * Reference to the byte-compiled expression.
+	 */
+	private REXP codeRef;
+
+	/**
+	 * Create prepared expression from references to its environment and
+	 * compiled code. Called by {@link RFace#prepare(String)}.
+	 * 
+	 * @param engine
+	 *            engine that holds the references
+	 * @param template
+	 *            template the expression was prepared from
+	 * @param parameterNames
+	 *            names of the parameters in the template
+	 * @param envRef
+	 *            reference to the environment parameters are bound in
+	 * @param codeRef
+	 *            reference to the compiled expression
+	 */
+	PreparedExpression(REngine engine, String template,
+			List<String> parameterNames, REXP envRef, REXP codeRef) {
+		this.engine = engine;
+		this.template = template;
+		this.parameterNames = Collections.unmodifiableList(parameterNames);
+		this.envRef = envRef;
+		this.codeRef = codeRef;
+	}
+
+	/**
+	 * Get the template this expression was prepared from.
+	 * 
+	 * @return template
+	 */
+	public String getTemplate() {
+		return template;
+	}
+
+	/**
+	 * Get the names of the parameters, in order of first appearance in the
+	 * template.
+	 * 
+	 * @return parameter names
+	 */
+	public List<String> getParameterNames() {
+		return parameterNames;
+	}
+
+	/**
+	 * Bind a value to a parameter.
+	 * 
+	 * @param name
+	 *            parameter name
+	 * @param value
+	 *            value
+	 * @return this prepared expression, so calls can be chained.
+	 * @throws RFaceException
+	 *             if {@code name} is not a parameter or problem assigning
+	 *             {@code value}.
+	 */
+	public PreparedExpression bind(String name, REXP value)
+			throws RFaceException {
+		checkOpen();
+
+		if (!parameterNames.contains(name)) {
+			throw new RFaceException(name + " is not a parameter of "
+					+ template);
+		}
+
+		try {
+			engine.assign(name, value, envRef);
+			bound.add(name);
+			return this;
+		} catch (REngineException e) {
+			throw new RFaceException(e.getMessage(), e);
+		} catch (REXPMismatchException e) {
+			throw new RFaceException(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Evaluate the compiled expression with the currently bound parameters.
+	 * 
+	 * @return REXP result of the evaluation.
+	 * @throws RFaceException
+	 *             if a parameter has not been bound, or there was an
+	 *             evaluation error. Nothing is printed to the console.
+	 */
+	public REXP execute() throws RFaceException {
+		checkOpen();
+
+		if (bound.size() != parameterNames.size()) {
+			throw new RFaceException("Not all parameters of " + template
+					+ " have been bound. Parameters: " + parameterNames
+					+ ", bound: " + bound);
+		}
+
+		try {
+			// null is the global environment
+			REXP rexp = engine.eval(codeRef, null, true);
+
+			if (rexp == null) {
+				throw new RFaceException("\"" + template
+						+ "\": evaluation failed");
+			} else if (rexp.inherits("try-error")) {
+				throw new RFaceException("\"" + template + "\": "
+						+ rexp.asString());
+			}
+
+			return rexp;
+		} catch (REngineException e) {
+			throw new RFaceException(e.getMessage(), e);
+		} catch (REXPMismatchException e) {
+			throw new RFaceException(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Release the compiled expression and its environment in R. This prepared
+	 * expression cannot be used afterwards.
+	 * 
+	 * @throws RFaceException
+	 *             if problem releasing
+	 */
+	public void close() throws RFaceException {
+		if (codeRef == null) {
+			return;
+		}
+
+		try {
+			engine.finalizeReference(codeRef);
+			engine.finalizeReference(envRef);
+		} catch (REngineException e) {
+			throw new RFaceException(e.getMessage(), e);
+		} catch (REXPMismatchException e) {
+			throw new RFaceException(e.getMessage(), e);
+		} finally {
+			codeRef = null;
+			envRef = null;
+		}
+	}
+
+	/**
+	 * Check this prepared expression has not been closed.
+	 */
+	private void checkOpen() {
+		if (codeRef == null) {
+			throw new IllegalStateException("Prepared expression " + template
+					+ " has been closed.");
+		}
+	}
+
+	@Override
+	public String toString() {
+		return template;
+	}
+
+}
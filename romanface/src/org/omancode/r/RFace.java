@@ -2,25 +2,37 @@ package org.omancode.r;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.omancode.math.NamedNumber;
+import org.omancode.r.types.RDataFrame;
 import org.omancode.r.types.REXPAttr;
 import org.omancode.r.types.REXPUtil;
 import org.omancode.r.types.RMatrix;
+import org.omancode.r.types.RSerialWriter;
+import org.omancode.r.types.RVector;
+import org.omancode.r.types.TransferFile;
 import org.omancode.util.ArrayUtil;
-import org.omancode.util.StringUtil;
 import org.rosuda.JRI.RMainLoopCallbacks;
 import org.rosuda.REngine.REXP;
 import org.rosuda.REngine.REXPDouble;
 import org.rosuda.REngine.REXPInteger;
 import org.rosuda.REngine.REXPMismatchException;
 import org.rosuda.REngine.REXPNull;
+import org.rosuda.REngine.REXPRaw;
 import org.rosuda.REngine.REXPString;
+import org.rosuda.REngine.REXPVector;
 import org.rosuda.REngine.REngine;
 import org.rosuda.REngine.REngineException;
 import org.rosuda.REngine.RList;
@@ -50,10 +62,69 @@ import org.rosuda.REngine.JRI.JRIEngine;
 public final class RFace {
 
 	/**
-	 * Support file containing R functions to load into R environment on
-	 * startup.
+	 * Placeholder for a parameter in a {@link PreparedExpression} template,
+	 * eg: {@code .(df)}.
 	 */
-	private static final String SUPPORT_FILE = "RFace.r";
+	private static final Pattern PARAMETER =
+			Pattern.compile("\\.\\(([A-Za-z.][A-Za-z0-9._]*)\\)");
+
+	/**
+	 * Builds a prepared expression from the template in {@code .expression.}
+	 * and parameter names in {@code .parameters.}. The parameters live in
+	 * their own environment, and bquote replaces each placeholder with a
+	 * lookup into it, with the environment inlined, so the expression itself
+	 * can be evaluated in the global environment. Any other use of {@code .()}
+	 * would also be rewritten by bquote, so is rejected. The expression is
+	 * wrapped in a try and byte-compiled (if the compiler package is
+	 * available).
+	 */
+	private static final String PREPARE_EXEC =
+			".prepared. <- local({ "
+					+ "env <- new.env(parent = emptyenv()); "
+					+ "code <- as.call(c(as.name(\"{\"), "
+					+ "as.list(parse(text = .expression.)))); "
+					+ "check <- function(e) if (is.call(e)) { "
+					+ "if (identical(e[[1L]], as.name(\".\")) "
+					+ "&& (length(e) != 2L || !is.name(e[[2L]]))) "
+					+ "stop(\"only .(name) parameters are supported, \", "
+					+ "\"found \", deparse(e)[1L], call. = FALSE); "
+					+ "for (i in seq_along(e)) "
+					+ "if (!identical(e[[i]], quote(expr = ))) check(e[[i]]) }; "
+					+ "check(code); "
+					+ "code <- do.call(bquote, list(code, "
+					+ "sapply(.parameters., function(p) call(\"$\", env, "
+					+ "as.name(p)), simplify = FALSE))); "
+					+ "code <- call(\"try\", code, silent = TRUE); "
+					+ "code <- tryCatch("
+					+ "compiler::compile(code, env = .GlobalEnv), "
+					+ "error = function(e) code); "
+					+ "list(env = env, code = code) })";
+
+	/**
+	 * The call that evaluates a parsed expression in
+	 * {@link #parseEvalTry(String, boolean)}, as it appears in error messages.
+	 * Either the freshly parsed expression {@code p}, or one from the parse
+	 * cache.
+	 */
+	private static final Pattern EVAL_CALL =
+			Pattern.compile("eval\\((p|"
+					+ Pattern.quote(ParseCache.CACHE_ENV)
+					+ "\\[\\[\"e\\d+\"\\]\\]), \\.GlobalEnv\\)");
+
+	/**
+	 * Evaluates enough for R to check for a pending interrupt, and catches
+	 * it.
+	 */
+	private static final String CLEAR_INTERRUPT =
+			"tryCatch(for (i in seq_len(1001L)) NULL, "
+					+ "interrupt = function(e) NULL)";
+
+	/**
+	 * Attribute that marks a {@code try-error} from
+	 * {@link #parseEvalTry(String, boolean)} as a parse, rather than
+	 * evaluation, error.
+	 */
+	private static final String PARSE_ERROR = "parseError";
 
 	/**
 	 * Newline.
@@ -72,6 +143,17 @@ public final class RFace {
 	 */
 	private static RMainLoopCallbacks rloopHandler = null;
 
+	/**
+	 * Thread running an {@link RFaceWarmup}, or {@code null} if none.
+	 */
+	private static volatile Thread warmupThread = null;
+
+	/**
+	 * Completes when the {@link RFaceWarmup} running on {@link #warmupThread}
+	 * has finished, or {@code null} if none.
+	 */
+	private static volatile Future<?> warmupDone = null;
+
 	/**
 	 * SingletonHolder is loaded, and the static initializer executed, on the
 	 * first execution of Singleton.getInstance() or the first access to
@@ -129,6 +211,8 @@ public final class RFace {
 	 */
 	public static RFace getInstance(RMainLoopCallbacks rloopHandler)
 			throws RFaceException {
+		awaitWarmup();
+
 		RFace.rloopHandler = rloopHandler;
 
 		try {
@@ -142,12 +226,64 @@ public final class RFace {
 		}
 	}
 
+	/**
+	 * Register a warm-up, so that {@link #getInstance(RMainLoopCallbacks)}
+	 * blocks callers other than the warm-up thread until it has finished.
+	 * Must be called before the warm-up thread is started.
+	 * 
+	 * @param thread
+	 *            warm-up thread
+	 * @param done
+	 *            completes when warm-up has finished, successfully or not
+	 */
+	static void setWarmup(Thread thread, Future<?> done) {
+		warmupThread = thread;
+		warmupDone = done;
+	}
+
+	/**
+	 * Wait for any registered warm-up to finish, unless called from the
+	 * warm-up thread itself. RFace is not thread safe, so callers must not
+	 * use it while the warm-up thread is still evaluating.
+	 * 
+	 * @throws RFaceException
+	 *             if interrupted while waiting
+	 */
+	private static void awaitWarmup() throws RFaceException {
+		Future<?> done = warmupDone;
+		if (done == null || Thread.currentThread() == warmupThread) {
+			return;
+		}
+
+		try {
+			done.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RFaceException("Interrupted waiting for R warm-up", e);
+		} catch (ExecutionException e) {
+			// a failed warm-up is reported by RFaceWarmup.await(),
+			// here we only need it to have stopped using R
+		}
+	}
+
 	/**
 	 * org.rosuda.REngine.REngine high level R interface.
 	 */
 	private REngine rosudaEngine = null;
 
-	private boolean supportFunctionsLoaded = false;
+	private volatile boolean supportFunctionsLoaded = false;
+
+	/**
+	 * Support functions used by {@link #parseEvalPrint(String)} and
+	 * {@link org.omancode.r.ui.RObjectTreeBuilder}.
+	 */
+	private final RSupportLibrary supportLibrary = new RSupportLibrary();
+
+	/**
+	 * Parsed expressions used by {@link #parseEvalTry(String, boolean)}.
+	 */
+	private ParseCache parseCache = new ParseCache(
+			ParseCache.DEFAULT_MAX_SIZE);
 
 	/**
 	 * Construct new RInterfaceHL. Only ever gets called once by
@@ -192,25 +328,59 @@ public final class RFace {
 		}
 	}
 
+	/**
+	 * Construct new RFace over an existing engine, eg: an Rserve
+	 * {@link org.rosuda.REngine.Rserve.RConnection}. Used by
+	 * {@link RFacePool} to create one RFace per R process. Unlike the
+	 * singleton, instances created this way are not attached to a REPL
+	 * handler.
+	 * 
+	 * @param engine
+	 *            engine to evaluate expressions with
+	 */
+	RFace(REngine engine) {
+		rosudaEngine = engine;
+	}
+
 	/**
 	 * Load support functions from support file. Provides support functions for
 	 * {@link #parseEvalPrint(String)} and
-	 * {@link org.omancode.r.ui.RObjectTreeBuilder}.
+	 * {@link org.omancode.r.ui.RObjectTreeBuilder}. The functions are loaded
+	 * once only, byte-compiled, into their own environment on the search path.
+	 * The compiled functions are cached on disk so subsequent sessions don't
+	 * need to parse and compile them again.
 	 * 
 	 * @throws IOException
 	 *             if problem loading file
 	 */
 	public void loadRSupportFunctions() throws IOException {
-		// NB: we access SUPPORT_FILE as a resource because it
-		// is packaged in a .jar. This means however that we need
-		// to read it as a stream and can't use loadFile()
+		if (!initialized()) {
+			throw new IllegalStateException(
+					"REngine has not been initialized.");
+		}
+
+		supportLibrary.load(rosudaEngine);
+		supportFunctionsLoaded = true;
+	}
 
-		InputStream ins = getClass().getResourceAsStream(SUPPORT_FILE);
-		if (ins == null) {
-			throw new IOException("Resource " + SUPPORT_FILE + " not found.");
+	/**
+	 * Load support functions, if they haven't already been loaded.
+	 * 
+	 * @throws RFaceException
+	 *             if problem loading support functions
+	 */
+	private void loadSupportFunctionsIfNeeded() throws RFaceException {
+		if (supportFunctionsLoaded) {
+			return;
 		}
 
-		parseEvalTry(RUtil.readRStream(ins));
+		try {
+			loadRSupportFunctions();
+		} catch (RFaceException e) {
+			throw e;
+		} catch (IOException e) {
+			throw new RFaceException(e.getMessage(), e);
+		}
 	}
 
 	/**
@@ -470,34 +640,93 @@ public final class RFace {
 					"REngine has not been initialized.");
 		}
 
-		try {
+		/**
+		 * The parsed expression object is cached in R, so repeated calls with
+		 * the same expr only need to eval.
+		 */
+		String cached = parseCache.get(expr);
 
-			/**
-			 * Place the expression in a character vector, syntax errors and
-			 * all. If we tried to execute the expression directly we might run
-			 * into syntax errors that wouldn't be trapped by try.
-			 */
-			rosudaEngine.assign(".expression.", expr);
+		/**
+		 * Evicted parsed expressions are removed from R as part of the
+		 * evaluation, so are queued again if it fails.
+		 */
+		String[] evicted = parseCache.drainEvictions();
 
-			/**
-			 * parse: converts a file, or character vector, into an expression
-			 * object but doesn't evaluate it. If there is a problem parsing,
-			 * because of syntax error, it will print a detailed message. This
-			 * message can be captured by "try".
-			 * 
-			 * eval: evaluates an expression object
-			 * 
-			 * try: returns a "try-error" object with the contents of the error
-			 * text, or if no error returns the evaluated expression's return
-			 * object (if it has one).
-			 * 
-			 */
-			String exec =
-					"try(eval(parse(text=.expression.)), silent="
-							+ RUtil.rBoolean(silent) + ")";
+		try {
+
+			String exec;
+
+			if (cached == null) {
+				/**
+				 * Place the expression in a character vector, syntax errors and
+				 * all. If we tried to execute the expression directly we might
+				 * run into syntax errors that wouldn't be trapped by try.
+				 */
+				rosudaEngine.assign(".expression.", expr);
+
+				/**
+				 * parse: converts a file, or character vector, into an
+				 * expression object but doesn't evaluate it. If there is a
+				 * problem parsing, because of syntax error, it will print a
+				 * detailed message. This message can be captured by "try".
+				 * 
+				 * eval: evaluates an expression object
+				 * 
+				 * try: returns a "try-error" object with the contents of the
+				 * error text, or if no error returns the evaluated expression's
+				 * return object (if it has one).
+				 * 
+				 * The parsed expression is only cached if it parses, and a
+				 * parse error is marked with the attribute PARSE_ERROR so it
+				 * can be told apart from an evaluation error.
+				 */
+				String rsilent = RUtil.rBoolean(silent);
+				exec =
+						"try(local({" + createParseCacheEnv()
+								+ ParseCache.removeStatement(evicted)
+								+ "p <- try(parse(text=.expression.), silent="
+								+ rsilent + "); "
+								+ "if (inherits(p, \"try-error\")) "
+								+ "structure(p, " + PARSE_ERROR
+								+ " = TRUE) else { assign(\""
+								+ parseCache.put(expr) + "\", p, envir = "
+								+ ParseCache.CACHE_ENV + "); "
+								+ "try(eval(p, .GlobalEnv), silent="
+								+ rsilent + ") } }), silent=" + rsilent
+								+ ")";
+			} else {
+				/**
+				 * The parsed expression may have gone from R, eg: if the
+				 * workspace has been cleared, in which case return
+				 * ParseCache.CACHE_MISS and parse it again.
+				 */
+				String entry =
+						ParseCache.CACHE_ENV + "[[\"" + cached + "\"]]";
+				exec =
+						"try({" + createParseCacheEnv()
+								+ ParseCache.removeStatement(evicted)
+								+ "if (is.null("
+								+ entry + ")) structure(NA, class = \""
+								+ ParseCache.CACHE_MISS + "\") else eval("
+								+ entry + ", .GlobalEnv)}, silent="
+								+ RUtil.rBoolean(silent) + ")";
+			}
 
 			REXP rexp = rosudaEngine.parseAndEval(exec);
 
+			if (cached == null && rexp != null && rexp.inherits("try-error")
+					&& rexp.hasAttribute(PARSE_ERROR)) {
+				// failed to parse, so don't keep
+				parseCache.remove(expr);
+			}
+
+			if (cached != null && rexp != null
+					&& rexp.inherits(ParseCache.CACHE_MISS)) {
+				// parse again, this time as a miss
+				parseCache.remove(expr);
+				return parseEvalTry(expr, silent);
+			}
+
 			if (rexp == null) {
 				// evaluated OK and returned nothing
 				return null;
@@ -505,17 +734,17 @@ public final class RFace {
 				// evaluated with error and returned "try-error" object which
 				// contains error message
 
-				// inject expr into error message
-				String errMsg =
-						rexp.asString().replace("eval(expr, envir, enclos)",
-								"\"" + expr + "\"");
-				throw new RFaceException(errMsg);
+				throw new RFaceException(tryErrorMessage(expr, rexp));
 			} else {
 				// evaluated OK and returned object
 				return rexp;
 			}
 
 		} catch (REngineException e) {
+			parseCache.requeueEvictions(evicted);
+			if (cached == null) {
+				parseCache.remove(expr);
+			}
 			// catch any errors generated by parseAndEval and display msg
 			throw new RFaceException(exprErrMsg(expr)
 					+ System.getProperty(NEWLINE) + e.getMessage(), e);
@@ -526,6 +755,269 @@ public final class RFace {
 		}
 	}
 
+	/**
+	 * R statement that creates the parse cache environment if it doesn't
+	 * already exist.
+	 * 
+	 * @return R statement followed by a {@code ;}
+	 */
+	private static String createParseCacheEnv() {
+		return "if (!exists(\"" + ParseCache.CACHE_ENV
+				+ "\", envir = .GlobalEnv, inherits = FALSE)) assign(\""
+				+ ParseCache.CACHE_ENV
+				+ "\", new.env(hash = TRUE), envir = .GlobalEnv); ";
+	}
+
+	/**
+	 * Set the maximum number of parsed expressions cached by
+	 * {@link #parseEvalTry(String, boolean)}. Clears the cache.
+	 * 
+	 * @param maxSize
+	 *            maximum number of parsed expressions
+	 * @throws RFaceException
+	 *             if problem clearing the cache in R
+	 */
+	public void setParseCacheSize(int maxSize) throws RFaceException {
+		clearParseCache();
+		parseCache = new ParseCache(maxSize);
+	}
+
+	/**
+	 * Remove all parsed expressions cached by
+	 * {@link #parseEvalTry(String, boolean)}.
+	 * 
+	 * @throws RFaceException
+	 *             if problem clearing the cache in R
+	 */
+	public void clearParseCache() throws RFaceException {
+		parseCache.clear();
+		eval("suppressWarnings(rm(\"" + ParseCache.CACHE_ENV
+				+ "\", envir = .GlobalEnv))");
+	}
+
+	/**
+	 * Number of {@link #parseEvalTry(String, boolean)} calls that reused a
+	 * cached parsed expression.
+	 * 
+	 * @return parse cache hits
+	 */
+	public long getParseCacheHits() {
+		return parseCache.getHits();
+	}
+
+	/**
+	 * Number of {@link #parseEvalTry(String, boolean)} calls that had to parse
+	 * their expression.
+	 * 
+	 * @return parse cache misses
+	 */
+	public long getParseCacheMisses() {
+		return parseCache.getMisses();
+	}
+
+	/**
+	 * Get the error message from a "try-error" object with {@code expr}
+	 * injected in place of the call that evaluated it.
+	 * 
+	 * @param expr
+	 *            expression that was evaluated
+	 * @param tryError
+	 *            "try-error" object returned by try
+	 * @return error message
+	 * @throws REXPMismatchException
+	 *             if {@code tryError} is not a character vector
+	 */
+	private static String tryErrorMessage(String expr, REXP tryError)
+			throws REXPMismatchException {
+		return EVAL_CALL.matcher(tryError.asString()).replaceFirst(
+				Matcher.quoteReplacement("\"" + expr + "\""));
+	}
+
+	/**
+	 * Parse and evaluate an expression in the global environment without
+	 * throwing an exception if it fails. Any error condition and warnings are
+	 * captured in R and returned in the same call, so errors cost no further
+	 * round trips to R. Useful in loops where errors are expected. Nothing is
+	 * printed to the console.
+	 * 
+	 * @param expr
+	 *            expression to parse and eval
+	 * @return result holding either the value returned or the error
+	 *         condition, and any warnings.
+	 * @throws RFaceException
+	 *             if problem transferring the expression to or from R.
+	 */
+	public EvalResult parseEvalResult(String expr) throws RFaceException {
+		if (!initialized()) {
+			throw new IllegalStateException(
+					"REngine has not been initialized.");
+		}
+
+		loadSupportFunctionsIfNeeded();
+
+		try {
+			rosudaEngine.assign(".expression.", expr);
+
+			return toEvalResult(expr, rosudaEngine
+					.parseAndEval(".evalCapture(.expression.)"));
+
+		} catch (REngineException e) {
+			throw new RFaceException(e.getMessage(), e);
+		} catch (REXPMismatchException e) {
+			throw new RFaceException(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Convert the list returned by the support function {@code .evalCapture}
+	 * to an {@link EvalResult}.
+	 * 
+	 * @param expr
+	 *            expression that was evaluated
+	 * @param capture
+	 *            list returned by {@code .evalCapture}
+	 * @return eval result
+	 * @throws REXPMismatchException
+	 *             if {@code capture} is not the list returned by
+	 *             {@code .evalCapture}
+	 */
+	private static EvalResult toEvalResult(String expr, REXP capture)
+			throws REXPMismatchException {
+		RList rlist = capture.asList();
+		REXP message = rlist.at("message");
+		String[] warnings = rlist.at("warnings").asStrings();
+
+		if (message == null || message.isNull()) {
+			return EvalResult.value(expr, rlist.at("value"), warnings);
+		}
+
+		REXP call = rlist.at("call");
+		return EvalResult.error(expr, message.asString(), call.isNull() ? null
+				: call.asString(), rlist.at("class").asStrings(), warnings);
+	}
+
+	/**
+	 * Parse and evaluate a batch of expressions in the global environment in a
+	 * single round trip. All expressions are assigned to R at once and then
+	 * each one is parsed and evaluated as per {@link #parseEvalResult(String)},
+	 * so an error in one expression does not prevent the rest from being
+	 * evaluated. Nothing is printed to the console.
+	 * 
+	 * @param exprs
+	 *            expressions to evaluate, in order
+	 * @return a result per expression, in the same order as {@code exprs},
+	 *         holding either the value returned or the error condition.
+	 * @throws RFaceException
+	 *             if problem transferring the batch to or from R.
+	 */
+	public List<EvalResult> evalBatch(List<String> exprs)
+			throws RFaceException {
+		if (!initialized()) {
+			throw new IllegalStateException(
+					"REngine has not been initialized.");
+		}
+
+		List<EvalResult> results = new ArrayList<EvalResult>(exprs.size());
+
+		if (exprs.isEmpty()) {
+			return results;
+		}
+
+		loadSupportFunctionsIfNeeded();
+
+		try {
+			rosudaEngine.assign(".expressions.",
+					exprs.toArray(new String[exprs.size()]));
+
+			RList rlist =
+					rosudaEngine.parseAndEval(
+							"lapply(.expressions., .evalCapture)").asList();
+
+			for (int i = 0; i < exprs.size(); i++) {
+				results.add(toEvalResult(exprs.get(i), rlist.at(i)));
+			}
+
+			return results;
+
+		} catch (REngineException e) {
+			throw new RFaceException(e.getMessage(), e);
+		} catch (REXPMismatchException e) {
+			throw new RFaceException(e.getMessage(), e);
+		} finally {
+			removeQuietly(".expressions.");
+		}
+	}
+
+	/**
+	 * Prepare an expression for repeated execution. The expression is parsed
+	 * and byte-compiled once. Parameters are written in {@code template} as
+	 * {@code .(name)} and bound to {@link REXP} values via
+	 * {@link PreparedExpression#bind(String, REXP)}, so each execution costs
+	 * only the binds and the eval. The expression is evaluated in the global
+	 * environment, so eg: assignments in it persist.
+	 * 
+	 * Because {@code .()} marks parameters, a template cannot use it for
+	 * anything else, eg: data.table's {@code .(a, b)}. Such templates are
+	 * rejected, and {@code .(a)} is always a parameter.
+	 * 
+	 * @param template
+	 *            expression, with parameters written as {@code .(name)}
+	 * @return prepared expression. Should be closed when no longer needed.
+	 * @throws RFaceException
+	 *             if there is a parse error, {@code template} uses
+	 *             {@code .()} other than as a parameter, or the engine does
+	 *             not support references and environments.
+	 */
+	public PreparedExpression prepare(String template) throws RFaceException {
+		if (!initialized()) {
+			throw new IllegalStateException(
+					"REngine has not been initialized.");
+		}
+
+		if (!rosudaEngine.supportsReferences()
+				|| !rosudaEngine.supportsEnvironments()) {
+			throw new RFaceException(rosudaEngine.getClass().getSimpleName()
+					+ " does not support prepared expressions.");
+		}
+
+		Set<String> params = new LinkedHashSet<String>();
+		Matcher matcher = PARAMETER.matcher(template);
+		while (matcher.find()) {
+			params.add(matcher.group(1));
+		}
+
+		try {
+			rosudaEngine.assign(".expression.", template);
+			rosudaEngine.assign(".parameters.",
+					params.toArray(new String[params.size()]));
+
+			REXP rexp =
+					rosudaEngine.parseAndEval("try(" + PREPARE_EXEC
+							+ ", silent=TRUE)");
+
+			if (rexp != null && rexp.inherits("try-error")) {
+				throw new RFaceException("\"" + template + "\": "
+						+ rexp.asString());
+			}
+
+			REXP envRef =
+					rosudaEngine.parseAndEval(".prepared.$env", null, false);
+			REXP codeRef =
+					rosudaEngine.parseAndEval(".prepared.$code", null, false);
+			rosudaEngine.parseAndEval("rm(.prepared.)");
+
+			return new PreparedExpression(rosudaEngine, template,
+					new ArrayList<String>(params), envRef, codeRef);
+
+		} catch (REngineException e) {
+			throw new RFaceException(exprErrMsg(template) + NEWLINE
+					+ e.getMessage(), e);
+		} catch (REXPMismatchException e) {
+			throw new RFaceException(exprErrMsg(template) + NEWLINE
+					+ e.getMessage(), e);
+		}
+	}
+
 	/**
 	 * Return the first 256 characters of expr and the last error message
 	 * reported by R.
@@ -706,6 +1198,47 @@ public final class RFace {
 		}
 	}
 
+	/**
+	 * Interrupt the expression R is currently evaluating, as if the user had
+	 * pressed Ctrl-C. The interrupted evaluation fails with an error and R
+	 * returns to the top level, ready for the next evaluation. Can be called
+	 * from any thread.
+	 * 
+	 * @return {@code true} if an interrupt was requested, or {@code false} if
+	 *         the engine does not support interruption (eg: Rserve).
+	 */
+	public boolean interrupt() {
+		if (rosudaEngine instanceof JRIEngine) {
+			((JRIEngine) rosudaEngine).getRni().rniStop(0);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Discard any interrupt requested by {@link #interrupt()} that has not yet
+	 * been delivered, eg: because the evaluation it was meant for completed
+	 * just before it was requested. Evaluates enough to make R check for
+	 * interrupts, catching any that is pending. Must be called from the thread
+	 * that evaluates.
+	 * 
+	 * @throws RFaceException
+	 *             if problem evaluating
+	 */
+	public void clearInterrupt() throws RFaceException {
+		if (rosudaEngine instanceof JRIEngine) {
+			try {
+				// R checks for interrupts every 1000 evaluations,
+				// including of constants
+				rosudaEngine.parseAndEval(CLEAR_INTERRUPT);
+			} catch (REngineException e) {
+				throw new RFaceException(e);
+			} catch (REXPMismatchException e) {
+				throw new RFaceException(e);
+			}
+		}
+	}
+
 	/**
 	 * Check if R engine has been loaded/initialized.
 	 * 
@@ -716,7 +1249,9 @@ public final class RFace {
 	}
 
 	/**
-	 * Print a message out to the R console.
+	 * Print a message out to the R console, or to {@link System#out} if there
+	 * is no R REPL handler (eg: for a {@link RFacePool} member, or while
+	 * warming up without a console).
 	 * 
 	 * @param msg
 	 *            message to print.
@@ -724,6 +1259,10 @@ public final class RFace {
 	 *             if problem during evaluation.
 	 */
 	public void printToConsole(String msg) throws RFaceException {
+		if (rloopHandler == null) {
+			System.out.print(msg);
+			return;
+		}
 		rloopHandler.rWriteConsole(null, msg, 0);
 		// parseAndEval("cat('" + msg + "')");
 	}
@@ -806,41 +1345,235 @@ public final class RFace {
 	}
 
 	/**
-	 * Create an {@link RList} in R as a matrix. All elements of {@code rlist}
-	 * must be of the same type and length.
+	 * Create a dataframe in R from vectors by serializing them in Java with
+	 * {@link RSerialWriter}, assigning the result as a single raw vector, and
+	 * unserializing it in R. Avoids converting each column to an REXP and
+	 * then to R, object by object.
 	 * 
 	 * @param name
 	 *            the name of the dataframe to create in R.
-	 * @param rlist
-	 *            the rlist
+	 * @param vectors
+	 *            columns, all of the same length, eg: an
+	 *            {@link org.omancode.r.types.RVectorList}
 	 * @throws RFaceException
-	 *             if problem assigning list
+	 *             if problem serializing or assigning
 	 */
-	public void assignMatrix(String name, RList rlist) throws RFaceException {
+	public void assignSerialized(String name, List<RVector> vectors)
+			throws RFaceException {
+		byte[] serialized;
 		try {
-			// TODO: this is a quick nasty way, fix this up by
-			// creating directly as REXPVector with appropriate
-			// dims and names, doing checks on length and type.
+			serialized = RSerialWriter.serialize(vectors);
+		} catch (IOException e) {
+			throw new RFaceException(e.getMessage(), e);
+		}
 
-			// turn the rlist into a dataframe
-			REXP dataframe = REXP.createDataFrame(rlist);
+		assign(".serialized.", new REXPRaw(serialized));
+		assign(name, "unserialize(.serialized.)");
+		parseEvalTry("rm(.serialized.)", true);
+	}
 
-			// assign the list to a named R object
-			assign(name, dataframe);
+	/**
+	 * Create a dataframe in R from vectors, via a {@link TransferFile} rather
+	 * than REXPs. Each column is copied once into the file and read by R with
+	 * a single {@code readBin}, rather than being marshalled through JNI, so
+	 * this is worthwhile for very large dataframes.
+	 * 
+	 * @param name
+	 *            the name of the dataframe to create in R.
+	 * @param vectors
+	 *            columns, all of the same length, eg: an
+	 *            {@link org.omancode.r.types.RVectorList}
+	 * @throws RFaceException
+	 *             if problem writing or reading the transfer file
+	 */
+	public void assignTransfer(String name, List<RVector> vectors)
+			throws RFaceException {
+		loadSupportFunctionsIfNeeded();
 
-			// dfm <- as.matrix(df)
-			// rownames(dfm) <- .catadj[[1]]
+		File file = createTransferFile();
+		try {
+			TransferFile.write(vectors, file);
+			assign(".transferFile.", new REXPString(toRPath(file)));
+			assign(name, ".readTransfer(.transferFile.)");
+		} catch (RFaceException e) {
+			throw e;
+		} catch (IOException e) {
+			throw new RFaceException(e.getMessage(), e);
+		} finally {
+			deleteTransferFile(file);
+			removeQuietly(".transferFile.");
+		}
+	}
 
-			assign(name, StringUtil.functionCall(".assignMatrix", name));
+	/**
+	 * Evaluate an expression that returns a dataframe, and read it via a
+	 * {@link TransferFile} rather than REXPs. The reverse of
+	 * {@link #assignTransfer(String, List)}.
+	 * 
+	 * @param expr
+	 *            expression that returns a dataframe, or anything
+	 *            {@code as.data.frame} accepts, of numeric, integer, logical,
+	 *            character, factor or integer64 columns.
+	 * @return dataframe, named {@code expr}
+	 * @throws RFaceException
+	 *             if problem evaluating {@code expr}, or writing or reading the
+	 *             transfer file
+	 */
+	public RDataFrame evalTransfer(String expr) throws RFaceException {
+		loadSupportFunctionsIfNeeded();
 
+		File file = createTransferFile();
+		try {
+			assign(".transferFile.", new REXPString(toRPath(file)));
+			parseEvalTry(".writeTransfer(" + expr + ", .transferFile.)");
+			return new RDataFrame(expr, TransferFile.read(file));
+		} catch (RFaceException e) {
+			throw e;
+		} catch (IOException e) {
+			throw new RFaceException(e.getMessage(), e);
+		} finally {
+			deleteTransferFile(file);
+			removeQuietly(".transferFile.");
+		}
+	}
+
+	/**
+	 * Remove a temporary object from R, ignoring any failure so as not to
+	 * mask an exception already being thrown. A temporary object that is not
+	 * removed is overwritten by its next use.
+	 * 
+	 * @param name
+	 *            name of the object
+	 */
+	private void removeQuietly(String name) {
+		try {
+			parseEvalTry("suppressWarnings(rm(" + name + "))", true);
+		} catch (RFaceException e) {
+			// leave it
+		}
+	}
+
+	private static File createTransferFile() throws RFaceException {
+		try {
+			return File.createTempFile("romanface", ".transfer");
+		} catch (IOException e) {
+			throw new RFaceException("Cannot create transfer file", e);
+		}
+	}
+
+	private static void deleteTransferFile(File file) {
+		// a mapped file can't be deleted on some platforms until its
+		// buffers have been garbage collected
+		if (!file.delete()) {
+			file.deleteOnExit();
+		}
+	}
+
+	/**
+	 * Path of {@code file} in a form R accepts on all platforms.
+	 * 
+	 * @param file
+	 *            file
+	 * @return absolute path with forward slashes
+	 */
+	private static String toRPath(File file) {
+		return file.getAbsolutePath().replace('\\', '/');
+	}
+
+	/**
+	 * Create an {@link RList} in R as a matrix. The first element of
+	 * {@code rlist} is the row names, and the remaining elements are the
+	 * columns, which must all be the same length. If the columns are all
+	 * plain integer or double vectors the matrix is built directly in Java as
+	 * an integer or double matrix. Otherwise, eg: if there are factor, logical
+	 * or character columns, {@code rlist} is assigned as a dataframe and
+	 * converted in R by {@code as.matrix}, giving eg: a character matrix.
+	 * 
+	 * @param name
+	 *            the name of the matrix to create in R.
+	 * @param rlist
+	 *            the rlist
+	 * @throws RFaceException
+	 *             if problem assigning list
+	 */
+	public void assignMatrix(String name, RList rlist) throws RFaceException {
+		REXPVector matrix;
+		try {
+			matrix = REXPUtil.toMatrix(rlist);
+		} catch (RFaceException e) {
+			throw new RFaceException("Cannot assign " + name + " as matrix: "
+					+ e.getMessage(), e);
 		} catch (REXPMismatchException e) {
 			throw new RFaceException(e);
 		}
+
+		if (matrix == null) {
+			assignDataFrame(name, rlist);
+			assign(name, "local({ m <- as.matrix(" + name
+					+ "[-1]); rownames(m) <- " + name + "[[1]]; m })");
+		} else {
+			assign(name, matrix);
+		}
+	}
+
+	/**
+	 * Create a double matrix in R, in a single assignment, from a
+	 * column-major array.
+	 * 
+	 * @param name
+	 *            the name of the matrix to create in R.
+	 * @param columnMajor
+	 *            values, column by column
+	 * @param nrow
+	 *            number of rows
+	 * @param ncol
+	 *            number of columns
+	 * @param rowNames
+	 *            row names, or {@code null}
+	 * @param colNames
+	 *            column names, or {@code null}
+	 * @throws RFaceException
+	 *             if problem assigning matrix
+	 */
+	public void assignMatrix(String name, double[] columnMajor, int nrow,
+			int ncol, String[] rowNames, String[] colNames)
+			throws RFaceException {
+		assign(name, REXPUtil.toMatrix(columnMajor, nrow, ncol, rowNames,
+				colNames));
+	}
+
+	/**
+	 * Create an integer matrix in R, in a single assignment, from a
+	 * column-major array.
+	 * 
+	 * @param name
+	 *            the name of the matrix to create in R.
+	 * @param columnMajor
+	 *            values, column by column
+	 * @param nrow
+	 *            number of rows
+	 * @param ncol
+	 *            number of columns
+	 * @param rowNames
+	 *            row names, or {@code null}
+	 * @param colNames
+	 *            column names, or {@code null}
+	 * @throws RFaceException
+	 *             if problem assigning matrix
+	 */
+	public void assignMatrix(String name, int[] columnMajor, int nrow,
+			int ncol, String[] rowNames, String[] colNames)
+			throws RFaceException {
+		assign(name, REXPUtil.toMatrix(columnMajor, nrow, ncol, rowNames,
+				colNames));
 	}
 
 	/**
 	 * Create a hash in R from a {@link Map}. Requires the {@code hash} R
-	 * package to have been loaded.
+	 * package to have been loaded. The map is converted to a single named
+	 * vector, see {@link REXPUtil#toNamedVector(Map)}, and the hash populated
+	 * from it with one call to {@code list2env}. Entries with an empty key or
+	 * a {@code null} value are skipped.
 	 * 
 	 * @param name
 	 *            name of hash
@@ -855,17 +1588,63 @@ public final class RFace {
 		// create new hash
 		parseEvalTry(name + " <- hash()");
 
-		for (Map.Entry<String, ?> entry : map.entrySet()) {
-			String key = entry.getKey();
-			Object value = entry.getValue();
+		// a hash is an S4 object containing an environment
+		parseEvalTry("invisible(list2env(" + assignNamedValues(map)
+				+ ", envir = " + name + "@.xData))");
+		parseEvalTry("rm(.namedValues.)", true);
+	}
 
-			// convert value to REXP and store in hash
-			if (!"".equals(key)) {
-				REXP rexp = REXPUtil.toREXP(value);
-				assign(".hashValue", rexp);
-				parseEvalTry(name + "[[\"" + key + "\"]] <- .hashValue");
-			}
-		}
+	/**
+	 * Create a named list in R from a {@link Map}, in a single assignment.
+	 * Entries with an empty key or a {@code null} value are skipped.
+	 * 
+	 * @param name
+	 *            name of list
+	 * @param map
+	 *            map of list element names to values
+	 * @throws RFaceException
+	 *             if problem creating list
+	 */
+	public void assignNamedList(String name, Map<String, ?> map)
+			throws RFaceException {
+		assign(name, assignNamedValues(map));
+		parseEvalTry("rm(.namedValues.)", true);
+	}
+
+	/**
+	 * Create an environment in R from a {@link Map}, with a variable per
+	 * entry, populated with one call to {@code list2env}. Entries with an
+	 * empty key or a {@code null} value are skipped.
+	 * 
+	 * @param name
+	 *            name of environment
+	 * @param map
+	 *            map of variable names to values
+	 * @throws RFaceException
+	 *             if problem creating environment
+	 */
+	public void assignEnvironment(String name, Map<String, ?> map)
+			throws RFaceException {
+		assign(name, "list2env(" + assignNamedValues(map)
+				+ ", envir = new.env(hash = TRUE))");
+		parseEvalTry("rm(.namedValues.)", true);
+	}
+
+	/**
+	 * Assign the values of {@code map} to {@code .namedValues.} in R as a
+	 * single named vector.
+	 * 
+	 * @param map
+	 *            map of names to values
+	 * @return R expression that converts {@code .namedValues.} to a named list
+	 * @throws RFaceException
+	 *             if problem assigning
+	 */
+	private String assignNamedValues(Map<String, ?> map)
+			throws RFaceException {
+		REXP rexp = REXPUtil.toNamedVector(map);
+		assign(".namedValues.", rexp);
+		return rexp.isList() ? ".namedValues." : "as.list(.namedValues.)";
 	}
 
 	/**
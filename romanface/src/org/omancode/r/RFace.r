@@ -77,13 +77,13 @@ pep <- function(expr) {
 	#global environment, their class and their info
 	#if showFunctions == TRUE returns functions as well
 	objs <- ls(".GlobalEnv")
-	klass <- sapply(objs, function(X) { class(get(X)) })
+	klass <- sapply(objs, function(X) { class(get(X, envir = .GlobalEnv)) })
 	klass <- .filter(klass, include, exclude)
 	
 	result <- NULL
 	result$names <- names(klass)
 	result$class <- klass
-	result$info <- sapply(result$names, function(X) { .getInfo(get(X)) })
+	result$info <- sapply(result$names, function(X) { .getInfo(get(X, envir = .GlobalEnv)) })
 	
 	names(result$class) <- NULL
 	names(result$info) <- NULL
@@ -458,11 +458,145 @@ TempEnv <- function () {
 	conditionMessage(e)
 }
 
-.assignMatrix <- function(df) {
-	#called from RFace.assignMatrix
-	#to convert dataframe save from RFace.assignDataFrame
-	#to a matrix
-	dfm <- as.matrix(df[-1])
-	rownames(dfm) <- df[[1]]
-	dfm
+.evalCapture <- function(expr) {
+	#called from RFace.parseEvalResult and RFace.evalBatch
+	## Parse then evaluate a character vector (expr) in the global environment
+	## without throwing or printing anything. Returns a list of:
+	##   value - the result, or NULL if there was an error
+	##   message, call, class - of the error condition, or NULL if no error
+	##   warnings - messages of any warnings generated
+	## so the caller gets everything in a single round trip.
+	warns <- character(0)
+	
+	result <- tryCatch(
+			withCallingHandlers(
+					list(value = eval(parse(text = expr), .GlobalEnv)),
+					
+					warning = function(w) {
+						warns <<- c(warns, conditionMessage(w))
+						invokeRestart("muffleWarning")
+					}
+			),
+			error = function(e) {
+				call <- conditionCall(e)
+				
+				## errors at the top level of expr have the call to eval
+				## above, which means nothing to the caller
+				if (!is.null(call) && identical(call[[1]], quote(eval))) 
+					call <- NULL
+				
+				list(value = NULL, 
+						message = conditionMessage(e),
+						call = if (is.null(call)) NULL else deparse(call)[1],
+						class = class(e))
+			}
+	)
+	
+	result$warnings <- warns
+	result
+}
+
+.readTransfer <- function(file) {
+	#called from RFace.assignTransfer
+	## Read a dataframe from a transfer file written by
+	## org.omancode.r.types.TransferFile, which describes the layout.
+	## Each column is read with a single readBin.
+	con <- file(file, "rb")
+	on.exit(close(con))
+	int <- function(n) readBin(con, "integer", n, size = 4, endian = "little")
+	dbl <- function(n) readBin(con, "double", n, size = 8, endian = "little")
+	str <- function(n) {
+		s <- readBin(con, "character", n)
+		Encoding(s) <- "UTF-8"
+		s
+	}
+	
+	header <- int(4)
+	if (length(header) != 4 || header[1] != 1380339028L || header[2] != 1L) 
+		stop("Not a transfer file: ", file)
+	ncol <- header[3]
+	nrow <- header[4]
+	
+	types <- integer(ncol)
+	colNames <- character(ncol)
+	levels <- vector("list", ncol)
+	for (j in seq_len(ncol)) {
+		types[j] <- int(1)
+		colNames[j] <- str(1)
+		if (types[j] == 5L) levels[[j]] <- str(int(1))
+	}
+	
+	cols <- vector("list", ncol)
+	for (j in seq_len(ncol)) {
+		cols[[j]] <- switch(types[j],
+				dbl(nrow),
+				int(nrow),
+				readBin(con, "logical", nrow, size = 4, endian = "little"),
+				{
+					na <- int(nrow) != 0L
+					s <- str(nrow)
+					s[na] <- NA
+					s
+				},
+				structure(int(nrow), levels = levels[[j]], class = "factor"),
+				structure(dbl(nrow), class = "integer64"))
+	}
+	
+	names(cols) <- colNames
+	attr(cols, "row.names") <- 
+			if (nrow > 0) c(NA_integer_, -nrow) else integer(0)
+	class(cols) <- "data.frame"
+	cols
+}
+
+.writeTransfer <- function(df, file) {
+	#called from RFace.evalTransfer
+	## Write a dataframe (or anything as.data.frame accepts) to a transfer
+	## file for org.omancode.r.types.TransferFile to read. Columns must be
+	## numeric, integer, logical, character, factor or integer64.
+	## Each column is written with a single writeBin.
+	df <- as.data.frame(df, stringsAsFactors = FALSE)
+	con <- file(file, "wb")
+	on.exit(close(con))
+	int <- function(x) writeBin(as.integer(x), con, size = 4, endian = "little")
+	dbl <- function(x) writeBin(x, con, size = 8, endian = "little")
+	str <- function(x) writeBin(enc2utf8(as.character(x)), con)
+	
+	types <- vapply(df, function(col) {
+				if (inherits(col, "integer64")) 6L
+				else if (is.factor(col)) 5L
+				else if (is.character(col)) 4L
+				else if (is.logical(col)) 3L
+				else if (is.integer(col)) 2L
+				else if (is.numeric(col)) 1L
+				else stop("Cannot transfer column of class ", class(col)[1])
+			}, integer(1))
+	
+	int(c(1380339028L, 1L, length(df), nrow(df)))
+	for (j in seq_along(df)) {
+		int(types[j])
+		str(names(df)[j])
+		if (types[j] == 5L) {
+			int(nlevels(df[[j]]))
+			str(levels(df[[j]]))
+		}
+	}
+	
+	for (j in seq_along(df)) {
+		col <- df[[j]]
+		switch(types[j],
+				dbl(as.double(col)),
+				int(col),
+				writeBin(col, con, size = 4, endian = "little"),
+				{
+					na <- is.na(col)
+					int(na)
+					col[na] <- ""
+					str(col)
+				},
+				int(unclass(col)),
+				dbl(unclass(col)))
+	}
+	
+	invisible(file)
 }
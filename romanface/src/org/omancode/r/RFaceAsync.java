@@ -0,0 +1,534 @@
+package org.omancode.r;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.rosuda.REngine.REXP;
+
+/**
+ * Asynchronous facade to {@link RFace}. All work submitted is funnelled onto a
+ * single R thread owned by this class, via a bounded submission queue. This
+ * allows request threads, the Swing EDT and background jobs to submit R work
+ * without blocking each other, and without concurrently entering R (because R
+ * is single threaded).
+ * 
+ * If the submission queue is full, submission methods throw a
+ * {@link RejectedExecutionException} rather than block the caller.
+ * 
+ * The queue depth and the time tasks spend waiting in the queue are recorded
+ * and can be retrieved via {@link #getQueueDepth()},
+ * {@link #getMeanWaitMillis()} and {@link #getMaxWaitMillis()}.
+ * 
+ * Cancelling a task that is executing, via {@link Future#cancel(boolean)} with
+ * {@code mayInterruptIfRunning} set, interrupts R (see
+ * {@link RFace#interrupt()}) so a runaway expression doesn't block every task
+ * behind it. If the task completes before the interrupt is delivered, the
+ * interrupt is cleared before the next task runs, so it cannot fail an
+ * unrelated task. Tasks can also be submitted with a deadline, after which they are
+ * cancelled in the same way. Deadlines are measured from submission, so a
+ * task whose deadline passes while it is still queued is never executed.
+ * 
+ * @author Oliver Mannion
+ * @version $Revision$
+ */
+public class RFaceAsync {
+
+	/**
+	 * Default capacity of the submission queue.
+	 */
+	public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+	/**
+	 * Name of the R thread.
+	 */
+	private static final String THREAD_NAME = "RFaceAsync";
+
+	/**
+	 * Name of the thread that cancels tasks whose deadline has passed.
+	 */
+	private static final String DEADLINE_THREAD_NAME = "RFaceAsync-deadline";
+
+	private final RFace rInterface;
+
+	private final ThreadPoolExecutor executor;
+
+	/**
+	 * Cancels tasks whose deadline has passed.
+	 */
+	private final ScheduledThreadPoolExecutor deadlines;
+
+	/**
+	 * Number of tasks that have started executing.
+	 */
+	private final AtomicLong startedCount = new AtomicLong();
+
+	/**
+	 * Total nanoseconds spent by started tasks waiting in the queue.
+	 */
+	private final AtomicLong totalWaitNanos = new AtomicLong();
+
+	/**
+	 * Maximum nanoseconds a started task has spent waiting in the queue.
+	 */
+	private final AtomicLong maxWaitNanos = new AtomicLong();
+
+	/**
+	 * Number of tasks cancelled because their deadline passed.
+	 */
+	private final AtomicLong deadlineExceededCount = new AtomicLong();
+
+	/**
+	 * Create an {@link RFaceAsync} with a submission queue of
+	 * {@link #DEFAULT_QUEUE_CAPACITY}.
+	 * 
+	 * @param rInterface
+	 *            r interface to execute work against
+	 */
+	public RFaceAsync(RFace rInterface) {
+		this(rInterface, DEFAULT_QUEUE_CAPACITY);
+	}
+
+	/**
+	 * Create an {@link RFaceAsync}.
+	 * 
+	 * @param rInterface
+	 *            r interface to execute work against
+	 * @param queueCapacity
+	 *            maximum number of tasks that can be waiting for the R thread
+	 */
+	public RFaceAsync(RFace rInterface, int queueCapacity) {
+		this.rInterface = rInterface;
+		this.executor =
+				new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+						new ArrayBlockingQueue<Runnable>(queueCapacity),
+						daemonThreadFactory(THREAD_NAME));
+		this.deadlines =
+				new ScheduledThreadPoolExecutor(1,
+						daemonThreadFactory(DEADLINE_THREAD_NAME));
+	}
+
+	/**
+	 * Create a thread factory that creates daemon threads.
+	 * 
+	 * @param name
+	 *            thread name
+	 * @return thread factory
+	 */
+	private static ThreadFactory daemonThreadFactory(final String name) {
+		return new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, name);
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+
+	/**
+	 * Submit a task to be executed on the R thread.
+	 * 
+	 * @param <T>
+	 *            type of result
+	 * @param task
+	 *            task to execute
+	 * @return future result of the task
+	 * @throws RejectedExecutionException
+	 *             if the submission queue is full or this has been shutdown
+	 */
+	public <T> Future<T> submit(Callable<T> task) {
+		RTask<T> rtask = new RTask<T>(new TimedCallable<T>(task));
+		executor.execute(rtask);
+		return rtask;
+	}
+
+	/**
+	 * Submit a task to be executed on the R thread, which is cancelled if it
+	 * has not completed within {@code timeout} of submission.
+	 * 
+	 * @param <T>
+	 *            type of result
+	 * @param task
+	 *            task to execute
+	 * @param timeout
+	 *            maximum time from submission to completion
+	 * @param unit
+	 *            unit of {@code timeout}
+	 * @return future result of the task. Throws a
+	 *         {@link java.util.concurrent.CancellationException} from
+	 *         {@link Future#get()} if the deadline passes.
+	 * @throws RejectedExecutionException
+	 *             if the submission queue is full or this has been shutdown
+	 */
+	public <T> Future<T> submit(Callable<T> task, long timeout, TimeUnit unit) {
+		RTask<T> rtask = new RTask<T>(new TimedCallable<T>(task));
+
+		rtask.deadline =
+				deadlines.schedule(new Deadline(rtask), timeout, unit);
+
+		try {
+			executor.execute(rtask);
+		} catch (RejectedExecutionException e) {
+			rtask.deadline.cancel(false);
+			throw e;
+		}
+
+		return rtask;
+	}
+
+	/**
+	 * Asynchronous {@link RFace#eval(String)}.
+	 * 
+	 * @param expr
+	 *            expression to evaluate.
+	 * @return future REXP result of the evaluation.
+	 * @throws RejectedExecutionException
+	 *             if the submission queue is full or this has been shutdown
+	 */
+	public Future<REXP> evalAsync(final String expr) {
+		return submit(new Callable<REXP>() {
+			@Override
+			public REXP call() throws RFaceException {
+				return rInterface.eval(expr);
+			}
+		});
+	}
+
+	/**
+	 * Asynchronous {@link RFace#eval(String)} with a deadline.
+	 * 
+	 * @param expr
+	 *            expression to evaluate.
+	 * @param timeout
+	 *            maximum time from submission to completion
+	 * @param unit
+	 *            unit of {@code timeout}
+	 * @return future REXP result of the evaluation.
+	 * @throws RejectedExecutionException
+	 *             if the submission queue is full or this has been shutdown
+	 */
+	public Future<REXP> evalAsync(final String expr, long timeout,
+			TimeUnit unit) {
+		return submit(new Callable<REXP>() {
+			@Override
+			public REXP call() throws RFaceException {
+				return rInterface.eval(expr);
+			}
+		}, timeout, unit);
+	}
+
+	/**
+	 * Asynchronous {@link RFace#parseEvalTry(String)}.
+	 * 
+	 * @param expr
+	 *            expression to try and parse and eval
+	 * @return future REXP result of the evaluation.
+	 * @throws RejectedExecutionException
+	 *             if the submission queue is full or this has been shutdown
+	 */
+	public Future<REXP> parseEvalTryAsync(final String expr) {
+		return submit(new Callable<REXP>() {
+			@Override
+			public REXP call() throws RFaceException {
+				return rInterface.parseEvalTry(expr);
+			}
+		});
+	}
+
+	/**
+	 * Asynchronous {@link RFace#parseEvalTry(String)} with a deadline.
+	 * 
+	 * @param expr
+	 *            expression to try and parse and eval
+	 * @param timeout
+	 *            maximum time from submission to completion
+	 * @param unit
+	 *            unit of {@code timeout}
+	 * @return future REXP result of the evaluation.
+	 * @throws RejectedExecutionException
+	 *             if the submission queue is full or this has been shutdown
+	 */
+	public Future<REXP> parseEvalTryAsync(final String expr, long timeout,
+			TimeUnit unit) {
+		return submit(new Callable<REXP>() {
+			@Override
+			public REXP call() throws RFaceException {
+				return rInterface.parseEvalTry(expr);
+			}
+		}, timeout, unit);
+	}
+
+	/**
+	 * Asynchronous {@link RFace#assign(String, REXP)}.
+	 * 
+	 * @param name
+	 *            symbol name
+	 * @param rexp
+	 *            r expression
+	 * @return future that completes when the assignment has been made.
+	 * @throws RejectedExecutionException
+	 *             if the submission queue is full or this has been shutdown
+	 */
+	public Future<Void> assignAsync(final String name, final REXP rexp) {
+		return submit(new Callable<Void>() {
+			@Override
+			public Void call() throws RFaceException {
+				rInterface.assign(name, rexp);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Asynchronous {@link RFace#assign(String, String)}.
+	 * 
+	 * @param x
+	 *            destination variable name
+	 * @param value
+	 *            source expression
+	 * @return future that completes when the assignment has been made.
+	 * @throws RejectedExecutionException
+	 *             if the submission queue is full or this has been shutdown
+	 */
+	public Future<Void> assignAsync(final String x, final String value) {
+		return submit(new Callable<Void>() {
+			@Override
+			public Void call() throws RFaceException {
+				rInterface.assign(x, value);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Get the number of tasks waiting in the submission queue.
+	 * 
+	 * @return queue depth
+	 */
+	public int getQueueDepth() {
+		return executor.getQueue().size();
+	}
+
+	/**
+	 * Get the number of tasks that have started executing on the R thread.
+	 * 
+	 * @return started task count
+	 */
+	public long getStartedCount() {
+		return startedCount.get();
+	}
+
+	/**
+	 * Get the mean time started tasks spent waiting in the submission queue.
+	 * 
+	 * @return mean wait in milliseconds, or {@code 0} if no tasks have started.
+	 */
+	public double getMeanWaitMillis() {
+		long started = startedCount.get();
+		if (started == 0) {
+			return 0;
+		}
+		return nanosToMillis(totalWaitNanos.get()) / started;
+	}
+
+	/**
+	 * Get the maximum time a started task spent waiting in the submission
+	 * queue.
+	 * 
+	 * @return max wait in milliseconds
+	 */
+	public double getMaxWaitMillis() {
+		return nanosToMillis(maxWaitNanos.get());
+	}
+
+	/**
+	 * Get the number of tasks cancelled because their deadline passed.
+	 * 
+	 * @return deadline exceeded count
+	 */
+	public long getDeadlineExceededCount() {
+		return deadlineExceededCount.get();
+	}
+
+	/**
+	 * Stop accepting new tasks. Previously submitted tasks are still executed,
+	 * and still cancelled if their deadline passes.
+	 */
+	public void shutdown() {
+		executor.shutdown();
+		deadlines.shutdown();
+	}
+
+	/**
+	 * Convert nanoseconds to milliseconds.
+	 * 
+	 * @param nanos
+	 *            nanoseconds
+	 * @return milliseconds
+	 */
+	private static double nanosToMillis(long nanos) {
+		return nanos / 1000000.0;
+	}
+
+	/**
+	 * Record the time a task spent waiting in the queue.
+	 * 
+	 * @param waitNanos
+	 *            nanoseconds waited
+	 */
+	private void recordWait(long waitNanos) {
+		startedCount.incrementAndGet();
+		totalWaitNanos.addAndGet(waitNanos);
+
+		long max = maxWaitNanos.get();
+		while (waitNanos > max && !maxWaitNanos.compareAndSet(max, waitNanos)) {
+			max = maxWaitNanos.get();
+		}
+	}
+
+	/**
+	 * A task executed on the R thread that interrupts R if cancelled while
+	 * running. If R completes the evaluation just as it is interrupted, the
+	 * interrupt is still pending when the task finishes, so it is cleared
+	 * before the R thread moves on to the next task.
+	 * 
+	 * @param <T>
+	 *            type of result
+	 */
+	private final class RTask<T> extends FutureTask<T> {
+
+		/**
+		 * Is the task executing on the R thread? Guarded by this.
+		 */
+		private boolean running;
+
+		/**
+		 * Has R been interrupted for this task? Guarded by this.
+		 */
+		private boolean interrupted;
+
+		/**
+		 * Scheduled cancellation of this task, or {@code null} if it has no
+		 * deadline.
+		 */
+		private volatile ScheduledFuture<?> deadline;
+
+		private RTask(Callable<T> callable) {
+			super(callable);
+		}
+
+		@Override
+		public void run() {
+			synchronized (this) {
+				if (isDone()) {
+					return;
+				}
+				running = true;
+			}
+			try {
+				super.run();
+			} finally {
+				boolean clear;
+				synchronized (this) {
+					running = false;
+					clear = interrupted;
+				}
+				if (clear) {
+					clearInterrupt();
+				}
+			}
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			// don't interrupt the R thread itself, JRI holds locks on it.
+			// Interrupt R instead.
+			synchronized (this) {
+				boolean cancelled = super.cancel(false);
+				if (cancelled && mayInterruptIfRunning && running) {
+					interrupted = rInterface.interrupt();
+				}
+				return cancelled;
+			}
+		}
+
+		/**
+		 * Clear an interrupt that may not have been delivered.
+		 */
+		private void clearInterrupt() {
+			try {
+				rInterface.clearInterrupt();
+			} catch (RFaceException e) {
+				// the next task will report any problem with R itself
+			}
+		}
+
+		@Override
+		protected void done() {
+			ScheduledFuture<?> scheduled = deadline;
+			if (scheduled != null) {
+				scheduled.cancel(false);
+			}
+		}
+	}
+
+	/**
+	 * Cancels a task when its deadline passes. Cancelled deadlines stay in the
+	 * queue of {@link #deadlines} until they would have run (there is no
+	 * remove on cancel policy in Java 6), so the task is only weakly held, to
+	 * let it and its result be collected once it is done and no longer
+	 * referenced elsewhere. A task that hasn't finished is still strongly held
+	 * by {@link #executor}.
+	 */
+	private final class Deadline implements Runnable {
+
+		private final WeakReference<RTask<?>> task;
+
+		private Deadline(RTask<?> task) {
+			this.task = new WeakReference<RTask<?>>(task);
+		}
+
+		@Override
+		public void run() {
+			RTask<?> rtask = task.get();
+			if (rtask != null && rtask.cancel(true)) {
+				deadlineExceededCount.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Wraps a {@link Callable} and records the time between its submission and
+	 * the start of its execution.
+	 * 
+	 * @param <T>
+	 *            type of result
+	 */
+	private final class TimedCallable<T> implements Callable<T> {
+
+		private final Callable<T> task;
+
+		private final long submitted = System.nanoTime();
+
+		private TimedCallable(Callable<T> task) {
+			this.task = task;
+		}
+
+		@Override
+		public T call() throws Exception {
+			recordWait(System.nanoTime() - submitted);
+			return task.call();
+		}
+	}
+
+}
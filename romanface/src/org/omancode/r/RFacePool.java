@@ -0,0 +1,598 @@
+package org.omancode.r;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.rosuda.REngine.REXP;
+import org.rosuda.REngine.REXPMismatchException;
+import org.rosuda.REngine.Rserve.RConnection;
+import org.rosuda.REngine.Rserve.RserveException;
+
+/**
+ * A pool of local R processes, each running Rserve and accessed via its own
+ * {@link RFace}. Because R is single threaded, the singleton {@link RFace}
+ * can only ever use one core. A pool of N R processes allows N evaluations to
+ * run concurrently.
+ * 
+ * The {@link #eval(String)}, {@link #parseEvalTry(String)} and
+ * {@link #assign(String, REXP)} methods dispatch to whichever R process is
+ * next free. Each R process has its own workspace, so work that spans more
+ * than one call (eg: an assign followed by an eval that uses it) must be done
+ * on the same {@link RFace} obtained via {@link #borrow()} and returned via
+ * {@link #release(RFace)}.
+ * 
+ * A thread that has borrowed an {@link RFace} must release it before calling
+ * {@link #assign(String, REXP)} or {@link #assign(String, String)}, which need
+ * every R process, otherwise they would wait forever. Such calls throw
+ * {@link IllegalStateException} instead.
+ * 
+ * Each port must be free when the pool starts. The pool only connects to, and
+ * shuts down, the Rserve processes it launched itself, which it identifies by
+ * a token passed in their environment.
+ * 
+ * Requires the Rserve R package to be installed.
+ * 
+ * @author Oliver Mannion
+ * @version $Revision$
+ */
+public class RFacePool {
+
+	/**
+	 * Default port of the first Rserve process. Subsequent processes use the
+	 * following ports.
+	 */
+	public static final int DEFAULT_BASE_PORT = 6311;
+
+	/**
+	 * Default R executable, ie: R on the path.
+	 */
+	public static final String DEFAULT_R_EXECUTABLE = "R";
+
+	/**
+	 * Maximum time to wait for an Rserve process to start accepting
+	 * connections.
+	 */
+	private static final long STARTUP_TIMEOUT_MILLIS = 30000;
+
+	/**
+	 * Time between connection attempts during startup.
+	 */
+	private static final long STARTUP_POLL_MILLIS = 100;
+
+	private static final String LOCALHOST = "localhost";
+
+	/**
+	 * Environment variable holding {@link #token} in each launched Rserve
+	 * process.
+	 */
+	private static final String TOKEN_VAR = "ROMANFACE_POOL_TOKEN";
+
+	/**
+	 * Identifies the Rserve processes launched by this pool.
+	 */
+	private final String token = UUID.randomUUID().toString();
+
+	/**
+	 * Processes that launched Rserve.
+	 */
+	private final List<Process> processes;
+
+	/**
+	 * Connections to each Rserve process.
+	 */
+	private final List<RConnection> connections;
+
+	/**
+	 * RFaces not currently in use.
+	 */
+	private final BlockingQueue<RFace> idle;
+
+	/**
+	 * Every RFace in the pool.
+	 */
+	private final Set<RFace> members;
+
+	/**
+	 * RFaces currently borrowed, and the thread that borrowed each. Guarded by
+	 * itself.
+	 */
+	private final Map<RFace, Thread> borrowers;
+
+	/**
+	 * Start a pool of {@code size} Rserve processes using R from the path,
+	 * listening on consecutive ports from {@link #DEFAULT_BASE_PORT}.
+	 * 
+	 * @param size
+	 *            number of R processes, eg: the number of cores
+	 * @throws RFaceException
+	 *             if an R process cannot be started or connected to
+	 */
+	public RFacePool(int size) throws RFaceException {
+		this(size, DEFAULT_R_EXECUTABLE, DEFAULT_BASE_PORT);
+	}
+
+	/**
+	 * Start a pool of {@code size} Rserve processes listening on consecutive
+	 * ports from {@code basePort}.
+	 * 
+	 * @param size
+	 *            number of R processes, eg: the number of cores
+	 * @param rExecutable
+	 *            path to the R executable
+	 * @param basePort
+	 *            port of the first Rserve process
+	 * @throws RFaceException
+	 *             if an R process cannot be started or connected to
+	 */
+	public RFacePool(int size, String rExecutable, int basePort)
+			throws RFaceException {
+		if (size < 1) {
+			throw new IllegalArgumentException("Pool size must be at least 1");
+		}
+
+		processes = new ArrayList<Process>(size);
+		connections = new ArrayList<RConnection>(size);
+		idle = new ArrayBlockingQueue<RFace>(size);
+		members = new HashSet<RFace>(size);
+		borrowers = new HashMap<RFace, Thread>(size);
+
+		try {
+			// start all processes first so they initialise concurrently
+			for (int i = 0; i < size; i++) {
+				processes.add(startRserve(rExecutable, basePort + i));
+			}
+
+			for (int i = 0; i < size; i++) {
+				RConnection connection =
+						connect(basePort + i, processes.get(i));
+				connections.add(connection);
+				RFace rInterface = new RFace(connection);
+				members.add(rInterface);
+				idle.add(rInterface);
+			}
+		} catch (RFaceException e) {
+			close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Launch an Rserve process.
+	 * 
+	 * @param rExecutable
+	 *            path to the R executable
+	 * @param port
+	 *            port to listen on
+	 * @return launching process
+	 * @throws RFaceException
+	 *             if {@code port} is in use or process cannot be launched
+	 */
+	private Process startRserve(String rExecutable, int port)
+			throws RFaceException {
+		checkPortFree(port);
+
+		ProcessBuilder pb =
+				new ProcessBuilder(rExecutable, "CMD", "Rserve", "--no-save",
+						"--RS-port", String.valueOf(port),
+						"--RS-enable-control");
+		pb.environment().put(TOKEN_VAR, token);
+		pb.redirectErrorStream(true);
+
+		try {
+			Process process = pb.start();
+			drain(process.getInputStream());
+			return process;
+		} catch (IOException e) {
+			throw new RFaceException("Cannot start Rserve on port " + port
+					+ ": " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Check nothing is listening on {@code port}, so that we don't connect to,
+	 * and later shut down, an Rserve we didn't start.
+	 * 
+	 * @param port
+	 *            port
+	 * @throws RFaceException
+	 *             if {@code port} is in use
+	 */
+	private static void checkPortFree(int port) throws RFaceException {
+		try {
+			new ServerSocket(port).close();
+		} catch (IOException e) {
+			throw new RFaceException("Cannot start Rserve on port " + port
+					+ ": port in use", e);
+		}
+	}
+
+	/**
+	 * Discard process output in a background thread so the process doesn't
+	 * block on a full output buffer.
+	 * 
+	 * @param stream
+	 *            process output stream
+	 */
+	private static void drain(final InputStream stream) {
+		Thread drainer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				byte[] buffer = new byte[1024];
+				try {
+					while (stream.read(buffer) != -1) {
+						// discard
+					}
+				} catch (IOException e) {
+					// process has gone, nothing more to read
+				}
+			}
+		}, "RFacePool-drain");
+		drainer.setDaemon(true);
+		drainer.start();
+	}
+
+	/**
+	 * Connect to the Rserve process on {@code port}, retrying until it is
+	 * ready or {@link #STARTUP_TIMEOUT_MILLIS} has elapsed.
+	 * 
+	 * @param port
+	 *            port
+	 * @param process
+	 *            process that launched Rserve on {@code port}
+	 * @return connection
+	 * @throws RFaceException
+	 *             if cannot connect in time, {@code process} failed, or the
+	 *             Rserve on {@code port} was not launched by this pool
+	 */
+	private RConnection connect(int port, Process process)
+			throws RFaceException {
+		long deadline = System.currentTimeMillis() + STARTUP_TIMEOUT_MILLIS;
+
+		while (true) {
+			checkRunning(process, port);
+
+			try {
+				return checkOwned(new RConnection(LOCALHOST, port), port);
+			} catch (RserveException e) {
+				if (System.currentTimeMillis() > deadline) {
+					throw new RFaceException("Cannot connect to Rserve on port "
+							+ port + ": " + e.getMessage(), e);
+				}
+			}
+
+			try {
+				Thread.sleep(STARTUP_POLL_MILLIS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RFaceException("Interrupted connecting to Rserve", e);
+			}
+		}
+	}
+
+	/**
+	 * Check {@code process} hasn't failed. On Unix Rserve daemonizes, so the
+	 * launching process exits successfully once Rserve has started.
+	 * 
+	 * @param process
+	 *            process that launched Rserve
+	 * @param port
+	 *            port Rserve was launched on
+	 * @throws RFaceException
+	 *             if {@code process} has exited with an error
+	 */
+	private static void checkRunning(Process process, int port)
+			throws RFaceException {
+		int exitValue;
+		try {
+			exitValue = process.exitValue();
+		} catch (IllegalThreadStateException e) {
+			// still running
+			return;
+		}
+
+		if (exitValue != 0) {
+			throw new RFaceException("Rserve on port " + port
+					+ " exited with status " + exitValue);
+		}
+	}
+
+	/**
+	 * Check {@code connection} is to an Rserve launched by this pool, ie: one
+	 * with our {@link #token}. If not, the connection is closed without
+	 * shutting the server down.
+	 * 
+	 * @param connection
+	 *            connection
+	 * @param port
+	 *            port
+	 * @return {@code connection}
+	 * @throws RFaceException
+	 *             if {@code connection} is to an Rserve we didn't launch
+	 */
+	private RConnection checkOwned(RConnection connection, int port)
+			throws RFaceException {
+		String serverToken;
+		try {
+			serverToken =
+					connection.eval("Sys.getenv(\"" + TOKEN_VAR + "\")")
+							.asString();
+		} catch (RserveException e) {
+			serverToken = null;
+		} catch (REXPMismatchException e) {
+			serverToken = null;
+		}
+
+		if (!token.equals(serverToken)) {
+			connection.close();
+			throw new RFaceException("Rserve on port " + port
+					+ " was not started by this pool");
+		}
+		return connection;
+	}
+
+	/**
+	 * Number of R processes in the pool.
+	 * 
+	 * @return pool size
+	 */
+	public int size() {
+		return connections.size();
+	}
+
+	/**
+	 * Number of R processes not currently in use.
+	 * 
+	 * @return idle count
+	 */
+	public int getIdleCount() {
+		return idle.size();
+	}
+
+	/**
+	 * Take exclusive use of an R process, waiting until one is free. Must be
+	 * returned via {@link #release(RFace)}, eg:
+	 * 
+	 * <pre>
+	 * RFace rface = pool.borrow();
+	 * try {
+	 * 	...
+	 * } finally {
+	 * 	pool.release(rface);
+	 * }
+	 * </pre>
+	 * 
+	 * @return r interface
+	 * @throws RFaceException
+	 *             if interrupted while waiting
+	 */
+	public RFace borrow() throws RFaceException {
+		RFace rInterface;
+		try {
+			rInterface = idle.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RFaceException("Interrupted waiting for R process", e);
+		}
+
+		synchronized (borrowers) {
+			borrowers.put(rInterface, Thread.currentThread());
+		}
+		return rInterface;
+	}
+
+	/**
+	 * Return an R process obtained from {@link #borrow()} to the pool. Each
+	 * borrowed {@link RFace} must be released exactly once. It may be released
+	 * by a thread other than the one that borrowed it.
+	 * 
+	 * @param rInterface
+	 *            r interface
+	 * @throws IllegalArgumentException
+	 *             if {@code rInterface} is not from this pool
+	 * @throws IllegalStateException
+	 *             if {@code rInterface} is not currently borrowed, eg: it has
+	 *             already been released
+	 */
+	public void release(RFace rInterface) {
+		if (!members.contains(rInterface)) {
+			throw new IllegalArgumentException(
+					"RFace is not a member of this pool");
+		}
+
+		synchronized (borrowers) {
+			if (borrowers.remove(rInterface) == null) {
+				throw new IllegalStateException("RFace is not borrowed, "
+						+ "it may have been released twice");
+			}
+		}
+		idle.add(rInterface);
+	}
+
+	/**
+	 * Release all of {@code rInterfaces}.
+	 * 
+	 * @param rInterfaces
+	 *            borrowed r interfaces
+	 */
+	private void releaseAll(List<RFace> rInterfaces) {
+		for (RFace rInterface : rInterfaces) {
+			release(rInterface);
+		}
+	}
+
+	/**
+	 * {@link RFace#eval(String)} on the next free R process.
+	 * 
+	 * @param expr
+	 *            expression to evaluate.
+	 * @return REXP result of the evaluation.
+	 * @throws RFaceException
+	 *             if problem during parse or evaluation.
+	 */
+	public REXP eval(String expr) throws RFaceException {
+		RFace rInterface = borrow();
+		try {
+			return rInterface.eval(expr);
+		} finally {
+			release(rInterface);
+		}
+	}
+
+	/**
+	 * {@link RFace#parseEvalTry(String)} on the next free R process.
+	 * 
+	 * @param expr
+	 *            expression to try and parse and eval
+	 * @return REXP result of the evaluation.
+	 * @throws RFaceException
+	 *             if there is a parse or evaluation error
+	 */
+	public REXP parseEvalTry(String expr) throws RFaceException {
+		return parseEvalTry(expr, false);
+	}
+
+	/**
+	 * {@link RFace#parseEvalTry(String, boolean)} on the next free R process.
+	 * 
+	 * @param expr
+	 *            expression to try and parse and eval
+	 * @param silent
+	 *            if {@code true} will not print anything to the console
+	 * @return REXP result of the evaluation.
+	 * @throws RFaceException
+	 *             if there is a parse or evaluation error
+	 */
+	public REXP parseEvalTry(String expr, boolean silent)
+			throws RFaceException {
+		RFace rInterface = borrow();
+		try {
+			return rInterface.parseEvalTry(expr, silent);
+		} finally {
+			release(rInterface);
+		}
+	}
+
+	/**
+	 * {@link RFace#assign(String, REXP)} in every R process, so the object is
+	 * available to whichever process subsequent work is dispatched to. Waits
+	 * until each process is free, so must not be called by a thread holding a
+	 * borrowed {@link RFace}.
+	 * 
+	 * @param name
+	 *            symbol name
+	 * @param rexp
+	 *            r expression
+	 * @throws RFaceException
+	 *             if problem assigning
+	 * @throws IllegalStateException
+	 *             if the current thread holds a borrowed {@link RFace}
+	 */
+	public void assign(String name, REXP rexp) throws RFaceException {
+		List<RFace> all = borrowAll();
+		try {
+			for (RFace rInterface : all) {
+				rInterface.assign(name, rexp);
+			}
+		} finally {
+			releaseAll(all);
+		}
+	}
+
+	/**
+	 * {@link RFace#assign(String, String)} in every R process, so the object is
+	 * available to whichever process subsequent work is dispatched to. Waits
+	 * until each process is free, so must not be called by a thread holding a
+	 * borrowed {@link RFace}.
+	 * 
+	 * @param x
+	 *            destination variable name
+	 * @param value
+	 *            source expression
+	 * @throws RFaceException
+	 *             if problem assigning
+	 * @throws IllegalStateException
+	 *             if the current thread holds a borrowed {@link RFace}
+	 */
+	public void assign(String x, String value) throws RFaceException {
+		List<RFace> all = borrowAll();
+		try {
+			for (RFace rInterface : all) {
+				rInterface.assign(x, value);
+			}
+		} finally {
+			releaseAll(all);
+		}
+	}
+
+	/**
+	 * Take exclusive use of every R process in the pool. Synchronized so that
+	 * concurrent callers don't each hold part of the pool waiting for the
+	 * rest.
+	 * 
+	 * @return all r interfaces
+	 * @throws RFaceException
+	 *             if interrupted while waiting
+	 * @throws IllegalStateException
+	 *             if the current thread holds a borrowed {@link RFace}, which
+	 *             would never become free
+	 */
+	private synchronized List<RFace> borrowAll() throws RFaceException {
+		synchronized (borrowers) {
+			if (borrowers.containsValue(Thread.currentThread())) {
+				throw new IllegalStateException(
+						"Cannot use every R process while holding a borrowed "
+								+ "RFace, release it first");
+			}
+		}
+
+		List<RFace> all = new ArrayList<RFace>(size());
+		try {
+			while (all.size() < size()) {
+				all.add(borrow());
+			}
+		} catch (RFaceException e) {
+			releaseAll(all);
+			throw e;
+		}
+		return all;
+	}
+
+	/**
+	 * Shutdown all Rserve processes and close their connections. Only
+	 * processes started by this pool are shut down.
+	 */
+	public void close() {
+		for (RConnection connection : connections) {
+			try {
+				connection.serverShutdown();
+			} catch (RserveException e) {
+				// control commands not enabled, use legacy shutdown
+				try {
+					connection.shutdown();
+				} catch (RserveException e1) {
+					// already gone
+				}
+			}
+			connection.close();
+		}
+		connections.clear();
+		idle.clear();
+
+		// on Windows Rserve runs in the launching process
+		for (Process process : processes) {
+			process.destroy();
+		}
+		processes.clear();
+	}
+
+}
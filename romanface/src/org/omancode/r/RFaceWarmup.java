@@ -0,0 +1,198 @@
+package org.omancode.r;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import org.rosuda.JRI.RMainLoopCallbacks;
+
+/**
+ * Warms up the {@link RFace} singleton in the background, so the first real
+ * request doesn't pay the cost of starting R. Intended to be started as early
+ * as possible, eg: at the start of {@code main}:
+ * 
+ * <pre>
+ * RFaceWarmup warmup = RFaceWarmup.start(rloopHandler, &quot;MASS&quot;, &quot;lattice&quot;);
+ * ... other application startup ...
+ * RFace rInterface = warmup.await();
+ * </pre>
+ * 
+ * Warm-up runs the {@link Phase}s in order on a single background thread,
+ * because R is single threaded, but concurrently with the rest of application
+ * startup. The time taken by each completed phase is available from
+ * {@link #getPhaseMillis()}.
+ * 
+ * {@link RFace#getInstance(RMainLoopCallbacks)} can be called at any time
+ * during warm-up, and will block until all phases have completed, because
+ * {@link RFace} is not thread safe and must not be used while warm-up is still
+ * evaluating. It should be called with the same REPL handler that warm-up was
+ * started with, because the handler is only established when the engine is
+ * created.
+ * 
+ * @author Oliver Mannion
+ * @version $Revision$
+ */
+public final class RFaceWarmup {
+
+	/**
+	 * Phases of warm-up, in the order they are run.
+	 */
+	public enum Phase {
+		/**
+		 * Start R and create the {@link RFace} singleton.
+		 */
+		ENGINE,
+
+		/**
+		 * Load the support functions.
+		 */
+		SUPPORT,
+
+		/**
+		 * Load the configured packages.
+		 */
+		PACKAGES
+	}
+
+	/**
+	 * Name of the warm-up thread.
+	 */
+	private static final String THREAD_NAME = "RFaceWarmup";
+
+	private final FutureTask<RFace> ready;
+
+	/**
+	 * Milliseconds taken by each completed phase. Guarded by itself.
+	 */
+	private final Map<Phase, Long> phaseMillis = new EnumMap<Phase, Long>(
+			Phase.class);
+
+	/**
+	 * Create warm-up task. Use {@link #start(RMainLoopCallbacks, String...)}.
+	 * 
+	 * @param rloopHandler
+	 *            R REPL handler supplied by client.
+	 * @param packages
+	 *            packages to load
+	 */
+	private RFaceWarmup(final RMainLoopCallbacks rloopHandler,
+			final List<String> packages) {
+		ready = new FutureTask<RFace>(new Callable<RFace>() {
+			@Override
+			public RFace call() throws IOException {
+				long start = System.nanoTime();
+				RFace rInterface = RFace.getInstance(rloopHandler);
+				start = endPhase(Phase.ENGINE, start);
+
+				rInterface.loadRSupportFunctions();
+				start = endPhase(Phase.SUPPORT, start);
+
+				for (String pack : packages) {
+					rInterface.loadPackage(pack);
+				}
+				endPhase(Phase.PACKAGES, start);
+
+				return rInterface;
+			}
+		});
+	}
+
+	/**
+	 * Start warming up {@link RFace} in the background.
+	 * 
+	 * @param rloopHandler
+	 *            R REPL handler supplied by client.
+	 * @param packages
+	 *            packages to load once R has started. If a package isn't
+	 *            installed, it is downloaded from CRAN.
+	 * @return warm-up, from which the warmed up {@link RFace} can be obtained
+	 */
+	public static RFaceWarmup start(RMainLoopCallbacks rloopHandler,
+			String... packages) {
+		RFaceWarmup warmup =
+				new RFaceWarmup(rloopHandler, Arrays.asList(packages));
+
+		Thread thread = new Thread(warmup.ready, THREAD_NAME);
+		thread.setDaemon(true);
+		RFace.setWarmup(thread, warmup.ready);
+		thread.start();
+
+		return warmup;
+	}
+
+	/**
+	 * Record the time taken by {@code phase}.
+	 * 
+	 * @param phase
+	 *            phase just completed
+	 * @param startNanos
+	 *            {@link System#nanoTime()} at the start of {@code phase}
+	 * @return {@link System#nanoTime()} at the end of {@code phase}
+	 */
+	private long endPhase(Phase phase, long startNanos) {
+		long end = System.nanoTime();
+		synchronized (phaseMillis) {
+			phaseMillis.put(phase, (end - startNanos) / 1000000);
+		}
+		return end;
+	}
+
+	/**
+	 * Get the future that completes with the warmed up {@link RFace} once all
+	 * phases have run.
+	 * 
+	 * @return future r interface
+	 */
+	public Future<RFace> getReady() {
+		return ready;
+	}
+
+	/**
+	 * Have all phases completed?
+	 * 
+	 * @return {@code true} if warm-up has finished, successfully or not.
+	 */
+	public boolean isReady() {
+		return ready.isDone();
+	}
+
+	/**
+	 * Wait for warm-up to complete.
+	 * 
+	 * @return warmed up r interface
+	 * @throws RFaceException
+	 *             if a phase failed, or interrupted while waiting
+	 */
+	public RFace await() throws RFaceException {
+		try {
+			return ready.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RFaceException("Interrupted waiting for R warm-up", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RFaceException) {
+				throw (RFaceException) cause;
+			}
+			throw new RFaceException(cause.getMessage(), cause);
+		}
+	}
+
+	/**
+	 * Get the time taken by each phase completed so far.
+	 * 
+	 * @return map of phase to milliseconds, in phase order
+	 */
+	public Map<Phase, Long> getPhaseMillis() {
+		synchronized (phaseMillis) {
+			return new EnumMap<Phase, Long>(phaseMillis);
+		}
+	}
+
+}
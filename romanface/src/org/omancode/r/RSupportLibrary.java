@@ -0,0 +1,262 @@
+package org.omancode.r;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.rosuda.REngine.REXP;
+import org.rosuda.REngine.REXPMismatchException;
+import org.rosuda.REngine.REngine;
+import org.rosuda.REngine.REngineException;
+
+/**
+ * Manages the lifecycle of the R support functions in {@link #SUPPORT_FILE}.
+ * The support functions are:
+ * <ul>
+ * <li>loaded once per session into a dedicated environment, named
+ * {@link #ENV_NAME}, attached to the search path rather than into the global
+ * environment.
+ * <li>byte-compiled using R's compiler package, if available.
+ * <li>cached on disk in compiled form, keyed by a hash of the support file
+ * and R version, so later sessions skip parsing and compiling. The cache is
+ * kept in a per-user directory restricted to its owner, written atomically,
+ * and discarded if it fails to load.
+ * </ul>
+ * 
+ * @author Oliver Mannion
+ * @version $Revision$
+ */
+final class RSupportLibrary {
+
+	/**
+	 * Support file containing R functions to load into R environment on
+	 * startup.
+	 */
+	static final String SUPPORT_FILE = "RFace.r";
+
+	/**
+	 * Name of the environment on the search path the support functions are
+	 * loaded into.
+	 */
+	static final String ENV_NAME = "RFace";
+
+	/**
+	 * Attach a fresh support environment, replacing any existing one, and
+	 * return it.
+	 */
+	private static final String ATTACH_ENV =
+			"if (\"" + ENV_NAME + "\" %in% search()) detach(\"" + ENV_NAME
+					+ "\", character.only = TRUE); " + "env <- attach(NULL, name = \""
+					+ ENV_NAME + "\"); ";
+
+	/**
+	 * Load compiled support functions from the cache file in
+	 * {@code .supportCache.} into the support environment. The functions
+	 * keep the global environment as their closure, see {@link #LOAD_SOURCE}.
+	 */
+	private static final String LOAD_CACHED =
+			"local({ " + ATTACH_ENV
+					+ "fns <- readRDS(.supportCache.); "
+					+ "for (n in names(fns)) { f <- fns[[n]]; "
+					+ "if (is.function(f)) environment(f) <- globalenv(); "
+					+ "assign(n, f, envir = env) }; "
+					+ "invisible(NULL) })";
+
+	/**
+	 * Evaluate the support source in {@code .supportSource.} into the support
+	 * environment, byte-compile its functions, and save them to the cache file
+	 * in {@code .supportCache.}, unless that is empty. The functions are
+	 * stored in the support environment but their closure is the global
+	 * environment, as it was when they were loaded there, so names they look
+	 * up, eg: via {@code get}, resolve against the user's objects first. The
+	 * cache file is
+	 * written to a temporary file and renamed into place, so it is never seen
+	 * partially written. Failure to save is ignored, the functions are then
+	 * just not cached.
+	 */
+	private static final String LOAD_SOURCE =
+			"local({ " + ATTACH_ENV
+					+ "eval(parse(text = .supportSource.), envir = env); "
+					+ "for (n in ls(env, all.names = TRUE)) { f <- get(n, envir = env); "
+					+ "if (is.function(f)) { environment(f) <- globalenv(); "
+					+ "assign(n, tryCatch(compiler::cmpfun(f), "
+					+ "error = function(e) f), envir = env) } }; "
+					+ "if (nzchar(.supportCache.)) { "
+					+ "tmp <- tempfile(tmpdir = dirname(.supportCache.)); "
+					+ "tryCatch({ saveRDS(as.list(env, all.names = TRUE), tmp); "
+					+ "Sys.chmod(tmp, \"0600\"); "
+					+ "file.rename(tmp, .supportCache.) }, "
+					+ "error = function(e) NULL, finally = unlink(tmp)) }; "
+					+ "invisible(NULL) })";
+
+	private final File cacheDir;
+
+	private boolean loaded = false;
+
+	/**
+	 * Create a support library that caches compiled functions in
+	 * {@code cacheDir}.
+	 * 
+	 * @param cacheDir
+	 *            directory to cache compiled functions in
+	 */
+	RSupportLibrary(File cacheDir) {
+		this.cacheDir = cacheDir;
+	}
+
+	/**
+	 * Create a support library that caches compiled functions in a
+	 * {@code .romanface} directory under {@code user.home}.
+	 */
+	RSupportLibrary() {
+		this(new File(System.getProperty("user.home"), ".romanface"));
+	}
+
+	/**
+	 * Has the support library been loaded?
+	 * 
+	 * @return {@code true} if loaded
+	 */
+	boolean isLoaded() {
+		return loaded;
+	}
+
+	/**
+	 * Load the support functions into {@code engine}, if they haven't already
+	 * been loaded.
+	 * 
+	 * @param engine
+	 *            engine to load into
+	 * @throws IOException
+	 *             if problem reading the support file or loading it into R
+	 */
+	synchronized void load(REngine engine) throws IOException {
+		if (loaded) {
+			return;
+		}
+
+		// NB: we access SUPPORT_FILE as a resource because it
+		// is packaged in a .jar. This means however that we need
+		// to read it as a stream and can't use loadFile()
+		InputStream ins = RSupportLibrary.class.getResourceAsStream(SUPPORT_FILE);
+		if (ins == null) {
+			throw new IOException("Resource " + SUPPORT_FILE + " not found.");
+		}
+		String source = RUtil.readRStream(ins);
+
+		try {
+			String rVersion =
+					engine.parseAndEval("R.version.string").asString();
+			File cacheFile =
+					new File(cacheDir, ENV_NAME + "-"
+							+ sha1Hex(source + rVersion) + ".rds");
+
+			boolean useCache = prepareCacheDir();
+			engine.assign(".supportCache.", useCache ? cacheFile
+					.getAbsolutePath() : "");
+
+			boolean loadedCached = false;
+			if (useCache && cacheFile.isFile()) {
+				try {
+					evalChecked(engine, LOAD_CACHED);
+					loadedCached = true;
+				} catch (RFaceException e) {
+					// corrupt or incompatible cache, so discard it
+					// and load from source instead
+					cacheFile.delete();
+				}
+			}
+
+			if (!loadedCached) {
+				engine.assign(".supportSource.", source);
+				evalChecked(engine, LOAD_SOURCE);
+				engine.parseAndEval("rm(.supportSource.)");
+			}
+
+			engine.parseAndEval("rm(.supportCache.)");
+			loaded = true;
+
+		} catch (REngineException e) {
+			throw new RFaceException("Loading " + SUPPORT_FILE + ": "
+					+ e.getMessage(), e);
+		} catch (REXPMismatchException e) {
+			throw new RFaceException("Loading " + SUPPORT_FILE + ": "
+					+ e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Create the cache directory, if need be, and restrict it to its owner.
+	 * The cache holds code that is loaded into R, so it must not be writable
+	 * by other users.
+	 * 
+	 * @return {@code true} if the cache directory can be used
+	 */
+	private boolean prepareCacheDir() {
+		if (!cacheDir.isDirectory() && !cacheDir.mkdirs()) {
+			return false;
+		}
+
+		// clearing permissions for everyone is not supported on some
+		// platforms (eg: Windows), where the directory under user.home
+		// is already private, so only granting to the owner must succeed
+		cacheDir.setReadable(false, false);
+		cacheDir.setWritable(false, false);
+		cacheDir.setExecutable(false, false);
+		return cacheDir.setReadable(true, true)
+				&& cacheDir.setWritable(true, true)
+				&& cacheDir.setExecutable(true, true);
+	}
+
+	/**
+	 * Evaluate {@code expr} inside a try, throwing any error.
+	 * 
+	 * @param engine
+	 *            engine
+	 * @param expr
+	 *            expression
+	 * @throws REngineException
+	 *             if problem evaluating
+	 * @throws REXPMismatchException
+	 *             if problem evaluating
+	 * @throws RFaceException
+	 *             if {@code expr} generates an error
+	 */
+	private static void evalChecked(REngine engine, String expr)
+			throws REngineException, REXPMismatchException, RFaceException {
+		REXP rexp = engine.parseAndEval("try(" + expr + ", silent=TRUE)");
+		if (rexp != null && rexp.inherits("try-error")) {
+			throw new RFaceException("Loading " + SUPPORT_FILE + ": "
+					+ rexp.asString());
+		}
+	}
+
+	/**
+	 * SHA-1 hash of a string as hex.
+	 * 
+	 * @param str
+	 *            string
+	 * @return hex hash
+	 */
+	private static String sha1Hex(String str) {
+		try {
+			byte[] digest =
+					MessageDigest.getInstance("SHA-1").digest(
+							str.getBytes("UTF-8"));
+
+			StringBuilder sb = new StringBuilder(digest.length * 2);
+			for (byte b : digest) {
+				sb.append(String.format("%02x", b));
+			}
+			return sb.toString();
+
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -11,6 +11,9 @@
  * <li>Evaluation of expressions from files.
  * <li>Assignment of R objects.
  * <li>Message output to the R console.
+ * <li>Asynchronous submission of R work onto a dedicated R thread.
+ * <li>Background warm-up of R at application startup.
+ * <li>Bulk transfer of large dataframes via memory-mapped files.
  * </ul>
  * 
  * @author Oliver Mannion
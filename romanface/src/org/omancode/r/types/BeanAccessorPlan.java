@@ -0,0 +1,431 @@
+package org.omancode.r.types;
+
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.ref.SoftReference;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.omancode.util.beans.BeanPropertyInspector;
+import org.rosuda.REngine.REXPDouble;
+import org.rosuda.REngine.REXPInteger;
+
+/**
+ * The properties of a bean class, and how to read each one into an
+ * {@link RVector}. Introspection and getter lookup are done once per bean
+ * class and stop class, and the plan is cached for subsequent conversions.
+ * Each property value is still read via reflection, ie: one
+ * {@link Method#invoke(Object, Object...)} per bean per property. Double,
+ * int, long and boolean properties are appended to their vectors via the
+ * primitive appenders of {@link RVector}, eg:
+ * {@link RVector#addDouble(double)}, rather than
+ * {@link RVector#addValue(Object)}.
+ * 
+ * The cache does not prevent bean classes, or their class loaders, from
+ * being unloaded: it is keyed weakly by bean class, and plans (which refer
+ * to the bean class via their getters) are held softly.
+ * 
+ * @author Oliver Mannion
+ * @version $Revision$
+ */
+final class BeanAccessorPlan {
+
+	/**
+	 * Cached plans, keyed by bean class and then stop class. Guarded by
+	 * itself.
+	 */
+	private static final Map<Class<?>, Map<Class<?>, SoftReference<BeanAccessorPlan>>> PLANS =
+			new WeakHashMap<Class<?>, Map<Class<?>, SoftReference<BeanAccessorPlan>>>();
+
+	private final List<String> names;
+
+	private final List<Class<?>> types;
+
+	/**
+	 * Property name to accessor.
+	 */
+	private final Map<String, PropertyAccessor> accessors;
+
+	/**
+	 * Create plan by introspecting {@code bean}.
+	 * 
+	 * @param bean
+	 *            example bean
+	 * @param stopClass
+	 *            stop class, properties of this class and its superclasses are
+	 *            excluded
+	 * @throws IntrospectionException
+	 *             if problem reading properties of {@code bean}
+	 */
+	private BeanAccessorPlan(Object bean, Class<?> stopClass)
+			throws IntrospectionException {
+		BeanPropertyInspector props = new BeanPropertyInspector(bean, stopClass);
+		names = props.getNames();
+		types = props.getTypes();
+
+		Map<String, Method> getters = new HashMap<String, Method>();
+		for (PropertyDescriptor pd : Introspector.getBeanInfo(bean.getClass())
+				.getPropertyDescriptors()) {
+			Method getter = pd.getReadMethod();
+			if (getter != null) {
+				try {
+					// skip access checks on each invoke
+					getter.setAccessible(true);
+				} catch (SecurityException e) {
+					// not permitted, invoke with checks
+				}
+				getters.put(pd.getName(), getter);
+			}
+		}
+
+		accessors = new HashMap<String, PropertyAccessor>();
+		for (int i = 0; i < names.size(); i++) {
+			String name = names.get(i);
+			Method getter = getters.get(name);
+			if (getter == null) {
+				throw new IntrospectionException("No getter for property "
+						+ name + " of " + bean.getClass().getCanonicalName());
+			}
+			accessors.put(name, createAccessor(name, getter, types.get(i)));
+		}
+	}
+
+	/**
+	 * Get the plan for the class of {@code bean}, creating it if it isn't
+	 * cached.
+	 * 
+	 * @param bean
+	 *            example bean
+	 * @param stopClass
+	 *            stop class, properties of this class and its superclasses are
+	 *            excluded
+	 * @return plan
+	 * @throws IntrospectionException
+	 *             if problem reading properties of {@code bean}
+	 */
+	static BeanAccessorPlan forBean(Object bean, Class<?> stopClass)
+			throws IntrospectionException {
+		Class<?> beanClass = bean.getClass();
+
+		synchronized (PLANS) {
+			Map<Class<?>, SoftReference<BeanAccessorPlan>> stopPlans =
+					PLANS.get(beanClass);
+			if (stopPlans != null) {
+				SoftReference<BeanAccessorPlan> ref = stopPlans.get(stopClass);
+				BeanAccessorPlan plan = ref == null ? null : ref.get();
+				if (plan != null) {
+					return plan;
+				}
+			}
+		}
+
+		// introspect outside the lock, a concurrent duplicate is harmless
+		BeanAccessorPlan plan = new BeanAccessorPlan(bean, stopClass);
+
+		synchronized (PLANS) {
+			Map<Class<?>, SoftReference<BeanAccessorPlan>> stopPlans =
+					PLANS.get(beanClass);
+			if (stopPlans == null) {
+				stopPlans =
+						new HashMap<Class<?>, SoftReference<BeanAccessorPlan>>();
+				PLANS.put(beanClass, stopPlans);
+			}
+			stopPlans.put(stopClass, new SoftReference<BeanAccessorPlan>(plan));
+		}
+		return plan;
+	}
+
+	/**
+	 * Property names.
+	 * 
+	 * @return names
+	 */
+	List<String> getNames() {
+		return names;
+	}
+
+	/**
+	 * Property types.
+	 * 
+	 * @return types
+	 */
+	List<Class<?>> getTypes() {
+		return types;
+	}
+
+	/**
+	 * Get the accessor for each vector.
+	 * 
+	 * @param vectors
+	 *            vectors, each named after a property of this plan
+	 * @return accessors, in the same order as {@code vectors}
+	 */
+	PropertyAccessor[] bind(List<RVector> vectors) {
+		PropertyAccessor[] bound = new PropertyAccessor[vectors.size()];
+		for (int i = 0; i < bound.length; i++) {
+			bound[i] = accessors.get(vectors.get(i).getName());
+		}
+		return bound;
+	}
+
+	/**
+	 * Append the properties of each bean in {@code beans} to
+	 * {@code vectors}.
+	 * 
+	 * @param beans
+	 *            beans of the class this plan was created for
+	 * @param vectors
+	 *            vectors, each named after a property of this plan
+	 */
+	void fill(Collection<?> beans, List<RVector> vectors) {
+		PropertyAccessor[] bound = bind(vectors);
+		RVector[] columns = vectors.toArray(new RVector[vectors.size()]);
+
+		for (Object bean : beans) {
+			for (int i = 0; i < columns.length; i++) {
+				bound[i].append(bean, columns[i]);
+			}
+		}
+	}
+
+	/**
+	 * Set the properties of each bean in {@code beans} in {@code vectors}
+	 * concurrently. {@code beans} is split into {@code numTasks} ranges, and
+	 * each range is filled by a separate task on {@code executor}. Produces
+	 * the same vectors as {@link #fill(Collection, List)}.
+	 * 
+	 * @param beans
+	 *            beans of the class this plan was created for
+	 * @param vectors
+	 *            empty vectors, each named after a property of this plan
+	 * @param executor
+	 *            executor to run the fill tasks on
+	 * @param numTasks
+	 *            number of ranges to split {@code beans} into
+	 * @throws InterruptedException
+	 *             if interrupted waiting for the tasks to complete
+	 */
+	void fill(Collection<?> beans, List<RVector> vectors,
+			ExecutorService executor, int numTasks)
+			throws InterruptedException {
+		final PropertyAccessor[] bound = bind(vectors);
+		final RVector[] columns = vectors.toArray(new RVector[vectors.size()]);
+		final Object[] rows = beans.toArray();
+
+		// pre-size, so each task can set its own range
+		for (RVector column : columns) {
+			column.setSize(rows.length);
+		}
+
+		// ranges are whole words of LogicalList, so no two tasks set
+		// elements in the same word
+		int rangeSize = (rows.length + numTasks - 1) / numTasks;
+		rangeSize =
+				(rangeSize + LogicalList.WORD_SIZE - 1) / LogicalList.WORD_SIZE
+						* LogicalList.WORD_SIZE;
+		List<Future<?>> tasks = new ArrayList<Future<?>>(numTasks);
+
+		for (int start = 0; start < rows.length; start += rangeSize) {
+			final int from = start;
+			final int to = Math.min(start + rangeSize, rows.length);
+
+			tasks.add(executor.submit(new Runnable() {
+				@Override
+				public void run() {
+					for (int row = from; row < to; row++) {
+						for (int i = 0; i < columns.length; i++) {
+							bound[i].set(rows[row], columns[i], row);
+						}
+					}
+				}
+			}));
+		}
+
+		try {
+			for (Future<?> task : tasks) {
+				task.get();
+			}
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new IllegalStateException(cause);
+		} finally {
+			for (Future<?> task : tasks) {
+				task.cancel(true);
+			}
+		}
+	}
+
+	/**
+	 * Create accessor that appends to the type of vector
+	 * {@link RVector#create(String, Class, int)} creates for {@code type}.
+	 * 
+	 * @param name
+	 *            property name
+	 * @param getter
+	 *            property read method
+	 * @param type
+	 *            property type
+	 * @return accessor
+	 */
+	private static PropertyAccessor createAccessor(String name, Method getter,
+			Class<?> type) {
+		if (type == double.class || type == Double.class
+				|| type == float.class || type == Float.class) {
+			return new PropertyAccessor(name, getter) {
+				@Override
+				void append(Object bean, RVector vector) {
+					vector.addDouble(getDouble(bean));
+				}
+
+				@Override
+				void set(Object bean, RVector vector, int index) {
+					vector.setDouble(index, getDouble(bean));
+				}
+
+				private double getDouble(Object bean) {
+					Number value = (Number) get(bean);
+					return value == null ? REXPDouble.NA : value.doubleValue();
+				}
+			};
+		} else if (type == int.class || type == Integer.class) {
+			return new PropertyAccessor(name, getter) {
+				@Override
+				void append(Object bean, RVector vector) {
+					vector.addInt(getInt(bean));
+				}
+
+				@Override
+				void set(Object bean, RVector vector, int index) {
+					vector.setInt(index, getInt(bean));
+				}
+
+				private int getInt(Object bean) {
+					Number value = (Number) get(bean);
+					return value == null ? REXPInteger.NA : value.intValue();
+				}
+			};
+		} else if (type == long.class || type == Long.class) {
+			return new PropertyAccessor(name, getter) {
+				@Override
+				void append(Object bean, RVector vector) {
+					vector.addLong(getLong(bean));
+				}
+
+				@Override
+				void set(Object bean, RVector vector, int index) {
+					vector.setLong(index, getLong(bean));
+				}
+
+				private long getLong(Object bean) {
+					Number value = (Number) get(bean);
+					return value == null ? REXPUtil.NA_INTEGER64 : value
+							.longValue();
+				}
+			};
+		} else if (type == boolean.class) {
+			return new PropertyAccessor(name, getter) {
+				@Override
+				void append(Object bean, RVector vector) {
+					vector.addBoolean((Boolean) get(bean));
+				}
+
+				@Override
+				void set(Object bean, RVector vector, int index) {
+					vector.setBoolean(index, (Boolean) get(bean));
+				}
+			};
+		} else {
+			return new PropertyAccessor(name, getter) {
+				@Override
+				void append(Object bean, RVector vector) {
+					vector.addValue(get(bean));
+				}
+
+				@Override
+				void set(Object bean, RVector vector, int index) {
+					vector.setValue(index, get(bean));
+				}
+			};
+		}
+	}
+
+	/**
+	 * Reads a property from a bean and appends it to a vector.
+	 */
+	abstract static class PropertyAccessor {
+
+		private final String name;
+
+		private final Method getter;
+
+		/**
+		 * Create accessor.
+		 * 
+		 * @param name
+		 *            property name
+		 * @param getter
+		 *            property read method
+		 */
+		PropertyAccessor(String name, Method getter) {
+			this.name = name;
+			this.getter = getter;
+		}
+
+		/**
+		 * Read the property from {@code bean}.
+		 * 
+		 * @param bean
+		 *            bean
+		 * @return property value
+		 */
+		Object get(Object bean) {
+			try {
+				return getter.invoke(bean);
+			} catch (IllegalAccessException e) {
+				throw new IllegalStateException("Cannot read property " + name,
+						e);
+			} catch (InvocationTargetException e) {
+				throw new IllegalStateException("Cannot read property " + name,
+						e.getCause());
+			}
+		}
+
+		/**
+		 * Read the property from {@code bean} and append it to
+		 * {@code vector}.
+		 * 
+		 * @param bean
+		 *            bean
+		 * @param vector
+		 *            vector
+		 */
+		abstract void append(Object bean, RVector vector);
+
+		/**
+		 * Read the property from {@code bean} and set it as element
+		 * {@code index} of {@code vector}.
+		 * 
+		 * @param bean
+		 *            bean
+		 * @param vector
+		 *            vector
+		 * @param index
+		 *            element to set
+		 */
+		abstract void set(Object bean, RVector vector, int index);
+	}
+
+}
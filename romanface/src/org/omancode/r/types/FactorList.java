@@ -0,0 +1,282 @@
+package org.omancode.r.types;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.rosuda.REngine.REXPFactor;
+import org.rosuda.REngine.REXPInteger;
+
+/**
+ * A dictionary encoded list of Strings, ie: an R factor. Each element is
+ * stored as an int code that indexes into a list of levels, so each distinct
+ * String is held once regardless of how many elements it appears in. Codes are
+ * 1-based as in R, and {@code NA} (a {@code null} element) is
+ * {@link REXPInteger#NA}.
+ * 
+ * Levels are added as new values are added. Converts to and from an
+ * {@link REXPFactor} without expanding the levels per element.
+ * 
+ * @author Oliver Mannion
+ * @version $Revision$
+ */
+public class FactorList extends AbstractList<String> {
+
+	private final IntArrayList codes;
+
+	private final List<String> levels;
+
+	/**
+	 * Level to code.
+	 */
+	private final Map<String, Integer> levelCodes;
+
+	/**
+	 * Create an empty factor list with no levels.
+	 * 
+	 * @param initialSize
+	 *            initial capacity
+	 */
+	public FactorList(int initialSize) {
+		this(new String[0], initialSize);
+	}
+
+	/**
+	 * Create an empty factor list with the given levels. Values that are not
+	 * one of {@code levels} are added as new levels.
+	 * 
+	 * @param levels
+	 *            levels
+	 * @param initialSize
+	 *            initial capacity
+	 */
+	public FactorList(String[] levels, int initialSize) {
+		this(new IntArrayList(initialSize), levels);
+	}
+
+	/**
+	 * Master constructor.
+	 * 
+	 * @param codes
+	 *            codes
+	 * @param levels
+	 *            levels
+	 */
+	private FactorList(IntArrayList codes, String[] levels) {
+		this.codes = codes;
+		this.levels = new ArrayList<String>(levels.length);
+		this.levelCodes = new HashMap<String, Integer>(levels.length * 2);
+
+		for (String level : levels) {
+			addLevel(level);
+		}
+	}
+
+	/**
+	 * Create a factor list from codes and levels. {@code codes} is wrapped
+	 * rather than copied.
+	 * 
+	 * @param codes
+	 *            1-based codes, or {@link REXPInteger#NA}
+	 * @param levels
+	 *            levels
+	 * @return factor list
+	 */
+	public static FactorList wrap(int[] codes, String[] levels) {
+		return new FactorList(IntArrayList.wrap(codes), levels);
+	}
+
+	/**
+	 * Create a factor list from the levels of an enum.
+	 * 
+	 * @param enumClass
+	 *            enum class
+	 * @param initialSize
+	 *            initial capacity
+	 * @return factor list
+	 */
+	public static FactorList forEnum(Class<?> enumClass, int initialSize) {
+		Object[] constants = enumClass.getEnumConstants();
+		String[] levels = new String[constants.length];
+		for (int i = 0; i < constants.length; i++) {
+			levels[i] = ((Enum<?>) constants[i]).name();
+		}
+		return new FactorList(levels, initialSize);
+	}
+
+	/**
+	 * Encode {@code strings} as a factor list, if they have no more than
+	 * {@code maxLevels} distinct values.
+	 * 
+	 * @param strings
+	 *            strings, {@code null} elements become {@code NA}
+	 * @param maxLevels
+	 *            maximum number of levels
+	 * @return factor list, or {@code null} if {@code strings} has more than
+	 *         {@code maxLevels} distinct values
+	 */
+	public static FactorList encode(List<?> strings, int maxLevels) {
+		FactorList factor = new FactorList(strings.size());
+		for (Object value : strings) {
+			factor.addValue(value);
+			if (factor.getNumLevels() > maxLevels) {
+				return null;
+			}
+		}
+		return factor;
+	}
+
+	/**
+	 * Add a level.
+	 * 
+	 * @param level
+	 *            level
+	 * @return code of the level
+	 */
+	private int addLevel(String level) {
+		levels.add(level);
+		int code = levels.size();
+		levelCodes.put(level, code);
+		return code;
+	}
+
+	/**
+	 * Get the code for {@code value}, adding it as a level if need be.
+	 * 
+	 * @param value
+	 *            value
+	 * @return code
+	 */
+	private int codeOf(Object value) {
+		if (value == null) {
+			return REXPInteger.NA;
+		}
+
+		String level =
+				value instanceof Enum<?> ? ((Enum<?>) value).name() : value
+						.toString();
+		Integer code = levelCodes.get(level);
+		return code == null ? addLevel(level) : code;
+	}
+
+	/**
+	 * Add a value. Enums are added by name, other objects via
+	 * {@link Object#toString()}, and {@code null} as {@code NA}.
+	 * 
+	 * @param value
+	 *            value
+	 */
+	public void addValue(Object value) {
+		codes.add(codeOf(value));
+	}
+
+	/**
+	 * Replace a value. Conversions are as per {@link #addValue(Object)}.
+	 * 
+	 * @param index
+	 *            index of the element to replace
+	 * @param value
+	 *            value
+	 */
+	public void setValue(int index, Object value) {
+		codes.set(index, codeOf(value));
+	}
+
+	/**
+	 * Set the number of elements. Elements added are {@code NA}.
+	 * 
+	 * @param size
+	 *            new size
+	 */
+	public void setSize(int size) {
+		int oldSize = codes.size();
+		codes.size(size);
+		for (int i = oldSize; i < size; i++) {
+			codes.set(i, REXPInteger.NA);
+		}
+	}
+
+	@Override
+	public String get(int index) {
+		int code = codes.getInt(index);
+		return REXPInteger.isNA(code) ? null : levels.get(code - 1);
+	}
+
+	@Override
+	public String set(int index, String element) {
+		String previous = get(index);
+		setValue(index, element);
+		return previous;
+	}
+
+	@Override
+	public void add(int index, String element) {
+		codes.add(index, codeOf(element));
+	}
+
+	@Override
+	public String remove(int index) {
+		String previous = get(index);
+		codes.removeInt(index);
+		return previous;
+	}
+
+	@Override
+	public int size() {
+		return codes.size();
+	}
+
+	/**
+	 * Get the code of an element.
+	 * 
+	 * @param index
+	 *            index
+	 * @return 1-based code, or {@link REXPInteger#NA}
+	 */
+	public int getCode(int index) {
+		return codes.getInt(index);
+	}
+
+	/**
+	 * Get the codes.
+	 * 
+	 * @return codes, backed by this list
+	 */
+	public IntArrayList getCodes() {
+		return codes;
+	}
+
+	/**
+	 * Get the levels.
+	 * 
+	 * @return a new array of levels, in code order
+	 */
+	public String[] getLevels() {
+		return levels.toArray(new String[levels.size()]);
+	}
+
+	/**
+	 * Get the number of levels.
+	 * 
+	 * @return number of levels
+	 */
+	public int getNumLevels() {
+		return levels.size();
+	}
+
+	/**
+	 * Convert to an {@link REXPFactor}. The codes are copied at most once.
+	 * 
+	 * @return factor
+	 */
+	public REXPFactor toREXPFactor() {
+		return new REXPFactor(
+				codes.elements().length == codes.size() ? codes.elements()
+						: codes.toIntArray(), getLevels());
+	}
+
+}
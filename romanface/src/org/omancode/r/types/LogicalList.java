@@ -0,0 +1,276 @@
+package org.omancode.r.types;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+
+import org.rosuda.REngine.REXPLogical;
+
+/**
+ * A list of logicals, ie: {@code TRUE}, {@code FALSE} or {@code NA}, packed
+ * one bit per element. Values are held in one bitset and {@code NA}s in a
+ * second bitset. {@code NA} is a {@code null} element. Converts to and from
+ * an {@link REXPLogical}.
+ * 
+ * The bitsets are arrays of words of 64 elements. Separate threads may set
+ * elements concurrently, without synchronization, provided the list has been
+ * sized beforehand via {@link #setSize(int)} and each thread sets elements in
+ * different words.
+ * 
+ * @author Oliver Mannion
+ * @version $Revision$
+ */
+public class LogicalList extends AbstractList<Boolean> {
+
+	/**
+	 * Number of elements per word.
+	 */
+	public static final int WORD_SIZE = 64;
+
+	private static final int ADDRESS_BITS_PER_WORD = 6;
+
+	/**
+	 * Bit set for each {@code TRUE} element. Bits at or beyond {@link #size}
+	 * are always clear.
+	 */
+	private long[] values;
+
+	/**
+	 * Bit set for each {@code NA} element. Bits at or beyond {@link #size}
+	 * are always clear.
+	 */
+	private long[] nas;
+
+	private int size;
+
+	/**
+	 * Create an empty list.
+	 * 
+	 * @param initialSize
+	 *            initial capacity
+	 */
+	public LogicalList(int initialSize) {
+		values = new long[words(initialSize)];
+		nas = new long[words(initialSize)];
+	}
+
+	/**
+	 * Create a list from R logicals, eg: from {@link REXPLogical#asBytes()}.
+	 * 
+	 * @param logicals
+	 *            {@link REXPLogical#TRUE}, {@link REXPLogical#FALSE} or
+	 *            {@link REXPLogical#NA}
+	 */
+	public LogicalList(byte[] logicals) {
+		this(logicals.length);
+		for (int i = 0; i < logicals.length; i++) {
+			if (logicals[i] == REXPLogical.TRUE) {
+				values[i >>> ADDRESS_BITS_PER_WORD] |= 1L << i;
+			} else if (REXPLogical.isNA(logicals[i])) {
+				nas[i >>> ADDRESS_BITS_PER_WORD] |= 1L << i;
+			}
+		}
+		size = logicals.length;
+	}
+
+	/**
+	 * Number of words needed to hold {@code numBits}.
+	 * 
+	 * @param numBits
+	 *            number of bits
+	 * @return number of words
+	 */
+	private static int words(int numBits) {
+		return (numBits + WORD_SIZE - 1) >>> ADDRESS_BITS_PER_WORD;
+	}
+
+	private static boolean getBit(long[] bits, int index) {
+		return (bits[index >>> ADDRESS_BITS_PER_WORD] & (1L << index)) != 0;
+	}
+
+	private static void setBit(long[] bits, int index, boolean bit) {
+		if (bit) {
+			bits[index >>> ADDRESS_BITS_PER_WORD] |= 1L << index;
+		} else {
+			bits[index >>> ADDRESS_BITS_PER_WORD] &= ~(1L << index);
+		}
+	}
+
+	/**
+	 * Grow the bitsets, if need be, to hold {@code capacity} elements.
+	 * 
+	 * @param capacity
+	 *            number of elements
+	 */
+	private void ensureCapacity(int capacity) {
+		int words = words(capacity);
+		if (words > values.length) {
+			int newLength = Math.max(words, values.length * 2);
+			values = Arrays.copyOf(values, newLength);
+			nas = Arrays.copyOf(nas, newLength);
+		}
+	}
+
+	private void checkIndex(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: "
+					+ size);
+		}
+	}
+
+	/**
+	 * Set the number of elements. Elements added are {@code FALSE}.
+	 * 
+	 * @param newSize
+	 *            new size
+	 */
+	public void setSize(int newSize) {
+		ensureCapacity(newSize);
+		for (int i = newSize; i < size; i++) {
+			setBit(values, i, false);
+			setBit(nas, i, false);
+		}
+		size = newSize;
+	}
+
+	/**
+	 * Get an element as a boolean. {@code NA} is returned as {@code false},
+	 * use {@link #isNA(int)} to distinguish it.
+	 * 
+	 * @param index
+	 *            index
+	 * @return element at this index
+	 */
+	public boolean getBoolean(int index) {
+		checkIndex(index);
+		return getBit(values, index);
+	}
+
+	/**
+	 * Is an element {@code NA}?
+	 * 
+	 * @param index
+	 *            index
+	 * @return {@code true} if {@code NA}
+	 */
+	public boolean isNA(int index) {
+		checkIndex(index);
+		return getBit(nas, index);
+	}
+
+	/**
+	 * Replace an element without boxing.
+	 * 
+	 * @param index
+	 *            index of the element to replace
+	 * @param value
+	 *            value
+	 */
+	public void setBoolean(int index, boolean value) {
+		checkIndex(index);
+		setBit(values, index, value);
+		setBit(nas, index, false);
+	}
+
+	/**
+	 * Replace an element with {@code NA}.
+	 * 
+	 * @param index
+	 *            index of the element to replace
+	 */
+	public void setNA(int index) {
+		checkIndex(index);
+		setBit(values, index, false);
+		setBit(nas, index, true);
+	}
+
+	/**
+	 * Add an element without boxing.
+	 * 
+	 * @param value
+	 *            value
+	 */
+	public void addBoolean(boolean value) {
+		ensureCapacity(size + 1);
+		setBit(values, size++, value);
+	}
+
+	@Override
+	public Boolean get(int index) {
+		return isNA(index) ? null : getBoolean(index);
+	}
+
+	@Override
+	public Boolean set(int index, Boolean element) {
+		Boolean previous = get(index);
+		if (element == null) {
+			setNA(index);
+		} else {
+			setBoolean(index, element);
+		}
+		return previous;
+	}
+
+	@Override
+	public void add(int index, Boolean element) {
+		if (index < 0 || index > size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: "
+					+ size);
+		}
+
+		ensureCapacity(size + 1);
+		// shift up the elements after index
+		for (int i = size; i > index; i--) {
+			setBit(values, i, getBit(values, i - 1));
+			setBit(nas, i, getBit(nas, i - 1));
+		}
+		size++;
+		set(index, element);
+	}
+
+	@Override
+	public Boolean remove(int index) {
+		Boolean previous = get(index);
+		// shift down the elements after index
+		for (int i = index; i < size - 1; i++) {
+			setBit(values, i, getBit(values, i + 1));
+			setBit(nas, i, getBit(nas, i + 1));
+		}
+		setSize(size - 1);
+		return previous;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Get the elements as R logicals.
+	 * 
+	 * @return a new array of {@link REXPLogical#TRUE},
+	 *         {@link REXPLogical#FALSE} or {@link REXPLogical#NA}
+	 */
+	public byte[] toLogicalArray() {
+		byte[] logicals = new byte[size];
+		for (int i = 0; i < size; i++) {
+			if (getBit(nas, i)) {
+				logicals[i] = REXPLogical.NA;
+			} else if (getBit(values, i)) {
+				logicals[i] = REXPLogical.TRUE;
+			} else {
+				logicals[i] = REXPLogical.FALSE;
+			}
+		}
+		return logicals;
+	}
+
+	/**
+	 * Convert to an {@link REXPLogical}.
+	 * 
+	 * @return logical vector
+	 */
+	public REXPLogical toREXPLogical() {
+		return new REXPLogical(toLogicalArray());
+	}
+
+}
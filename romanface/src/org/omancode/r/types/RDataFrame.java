@@ -18,6 +18,11 @@ import org.rosuda.REngine.RList;
  * An R expression that is an R dataframe. The dataframe "names" attribute is
  * used for the column headings. Implements {@link CBuilder}.
  * 
+ * As well as row by row access via {@link CBuilder}, provides columnar access
+ * with typed accessors, eg: {@link #getDouble(int, int)}, bulk column access,
+ * eg: {@link #getDoubles(int)}, and a reusable {@link Cursor}. These read the
+ * underlying primitive columns directly without allocating or boxing.
+ * 
  * @author Oliver Mannion
  * @version $Revision$
  */
@@ -28,6 +33,11 @@ public class RDataFrame implements CBuilder {
 	private int currentRowIndex;
 	private final Class<?>[] columnTypes;
 	private final List<RVector> rvectors;
+
+	/**
+	 * {@link #rvectors} as an array, for typed access.
+	 */
+	private final RVector[] columns;
 	private final int numRows;
 
 	/**
@@ -59,6 +69,7 @@ public class RDataFrame implements CBuilder {
 			// convert rlist to list of rvectors
 			RList rlist = rexp.asList();
 			rvectors = new RVectorList(rlist);
+			columns = rvectors.toArray(new RVector[rvectors.size()]);
 
 			// get column types and number of rows
 			columnTypes = calcColumnTypes(rvectors);
@@ -68,6 +79,32 @@ public class RDataFrame implements CBuilder {
 		}
 	}
 
+	/**
+	 * Create an {@link RDataFrame} from vectors, eg: as read by
+	 * {@link TransferFile#read(java.io.File)}.
+	 * 
+	 * @param name
+	 *            name
+	 * @param rvectors
+	 *            columns, all of the same length
+	 * @throws UnsupportedTypeException
+	 *             if {@code rvectors} contains a type that cannot be handled
+	 */
+	public RDataFrame(String name, List<RVector> rvectors)
+			throws UnsupportedTypeException {
+		this.name = name;
+		this.rvectors = rvectors;
+		columns = rvectors.toArray(new RVector[rvectors.size()]);
+
+		colNames = new String[columns.length];
+		for (int i = 0; i < columns.length; i++) {
+			colNames[i] = columns[i].getName();
+		}
+
+		columnTypes = calcColumnTypes(rvectors);
+		numRows = columns.length == 0 ? 0 : columns[0].size();
+	}
+
 	/**
 	 * Return an array of java types for the elements of the rlist.
 	 * 
@@ -102,6 +139,263 @@ public class RDataFrame implements CBuilder {
 		return clazz.contains("data.frame");
 	}
 
+	/**
+	 * Number of rows.
+	 * 
+	 * @return row count
+	 */
+	public int getRowCount() {
+		return numRows;
+	}
+
+	/**
+	 * Number of columns.
+	 * 
+	 * @return column count
+	 */
+	public int getColumnCount() {
+		return rvectors.size();
+	}
+
+	/**
+	 * Get the index of the column with the given name.
+	 * 
+	 * @param colName
+	 *            column name
+	 * @return column index, or {@code -1} if there is no such column
+	 */
+	public int getColumnIndex(String colName) {
+		for (int i = 0; i < colNames.length; i++) {
+			if (colNames[i].equals(colName)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Get a column.
+	 * 
+	 * @param col
+	 *            column index
+	 * @return column vector
+	 */
+	public RVector getColumn(int col) {
+		return columns[col];
+	}
+
+	/**
+	 * Get a cell as a double. See {@link RVector#getDouble(int)}.
+	 * 
+	 * @param col
+	 *            column index
+	 * @param row
+	 *            row index
+	 * @return cell value
+	 */
+	public double getDouble(int col, int row) {
+		return columns[col].getDouble(row);
+	}
+
+	/**
+	 * Get a cell as an int. See {@link RVector#getInt(int)}.
+	 * 
+	 * @param col
+	 *            column index
+	 * @param row
+	 *            row index
+	 * @return cell value
+	 */
+	public int getInt(int col, int row) {
+		return columns[col].getInt(row);
+	}
+
+	/**
+	 * Get a cell as a boolean. See {@link RVector#getBoolean(int)}.
+	 * 
+	 * @param col
+	 *            column index
+	 * @param row
+	 *            row index
+	 * @return cell value
+	 */
+	public boolean getBoolean(int col, int row) {
+		return columns[col].getBoolean(row);
+	}
+
+	/**
+	 * Get a cell as a String. See {@link RVector#getString(int)}.
+	 * 
+	 * @param col
+	 *            column index
+	 * @param row
+	 *            row index
+	 * @return cell value
+	 */
+	public String getString(int col, int row) {
+		return columns[col].getString(row);
+	}
+
+	/**
+	 * Is a cell {@code NA}?
+	 * 
+	 * @param col
+	 *            column index
+	 * @param row
+	 *            row index
+	 * @return {@code true} if {@code NA}
+	 */
+	public boolean isNA(int col, int row) {
+		return columns[col].isNA(row);
+	}
+
+	/**
+	 * Get a column as a double array. See {@link RVector#toDoubleArray()}.
+	 * Use {@link RVector#getDoubles(int, double[], int, int)} on
+	 * {@link #getColumn(int)} to copy into an existing array.
+	 * 
+	 * @param col
+	 *            column index
+	 * @return column values
+	 */
+	public double[] getDoubles(int col) {
+		return columns[col].toDoubleArray();
+	}
+
+	/**
+	 * Get a column as an int array. See {@link RVector#toIntArray()}.
+	 * 
+	 * @param col
+	 *            column index
+	 * @return column values
+	 */
+	public int[] getInts(int col) {
+		return columns[col].toIntArray();
+	}
+
+	/**
+	 * Get a column as a String array. See {@link RVector#toStringArray()}.
+	 * 
+	 * @param col
+	 *            column index
+	 * @return column values
+	 */
+	public String[] getStrings(int col) {
+		return columns[col].toStringArray();
+	}
+
+	/**
+	 * Create a cursor positioned before the first row.
+	 * 
+	 * @return cursor
+	 */
+	public Cursor cursor() {
+		return new Cursor();
+	}
+
+	/**
+	 * A reusable cursor over the rows of the dataframe. Typed accessors read
+	 * the current row without allocating, eg:
+	 * 
+	 * <pre>
+	 * RDataFrame.Cursor cursor = df.cursor();
+	 * while (cursor.next()) {
+	 * 	total += cursor.getDouble(col);
+	 * }
+	 * </pre>
+	 */
+	public final class Cursor {
+
+		private int row = -1;
+
+		private Cursor() {
+		}
+
+		/**
+		 * Advance to the next row.
+		 * 
+		 * @return {@code true} if positioned on a row, {@code false} if
+		 *         there are no more rows.
+		 */
+		public boolean next() {
+			if (row < numRows) {
+				row++;
+			}
+			return row < numRows;
+		}
+
+		/**
+		 * Position before the first row, so the cursor can be reused.
+		 */
+		public void reset() {
+			row = -1;
+		}
+
+		/**
+		 * Current row index.
+		 * 
+		 * @return row index
+		 */
+		public int getRow() {
+			return row;
+		}
+
+		/**
+		 * Get a cell in the current row as a double.
+		 * 
+		 * @param col
+		 *            column index
+		 * @return cell value
+		 */
+		public double getDouble(int col) {
+			return columns[col].getDouble(row);
+		}
+
+		/**
+		 * Get a cell in the current row as an int.
+		 * 
+		 * @param col
+		 *            column index
+		 * @return cell value
+		 */
+		public int getInt(int col) {
+			return columns[col].getInt(row);
+		}
+
+		/**
+		 * Get a cell in the current row as a boolean.
+		 * 
+		 * @param col
+		 *            column index
+		 * @return cell value
+		 */
+		public boolean getBoolean(int col) {
+			return columns[col].getBoolean(row);
+		}
+
+		/**
+		 * Get a cell in the current row as a String.
+		 * 
+		 * @param col
+		 *            column index
+		 * @return cell value
+		 */
+		public String getString(int col) {
+			return columns[col].getString(row);
+		}
+
+		/**
+		 * Is a cell in the current row {@code NA}?
+		 * 
+		 * @param col
+		 *            column index
+		 * @return {@code true} if {@code NA}
+		 */
+		public boolean isNA(int col) {
+			return columns[col].isNA(row);
+		}
+	}
+
 	@Override
 	public void close() {
 		// nothing to do
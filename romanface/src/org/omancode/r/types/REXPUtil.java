@@ -1,12 +1,21 @@
 package org.omancode.r.types;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.omancode.r.RFaceException;
 import org.rosuda.REngine.REXP;
 import org.rosuda.REngine.REXPDouble;
+import org.rosuda.REngine.REXPGenericVector;
 import org.rosuda.REngine.REXPInteger;
+import org.rosuda.REngine.REXPList;
 import org.rosuda.REngine.REXPLogical;
+import org.rosuda.REngine.REXPMismatchException;
 import org.rosuda.REngine.REXPNull;
 import org.rosuda.REngine.REXPString;
 import org.rosuda.REngine.REXPVector;
+import org.rosuda.REngine.RList;
 
 /**
  * Static utility class for working with {@link REXP}s.
@@ -16,6 +25,16 @@ import org.rosuda.REngine.REXPVector;
  */
 public final class REXPUtil {
 
+	/**
+	 * Class of a bit64 {@code integer64} vector.
+	 */
+	public static final String INTEGER64 = "integer64";
+
+	/**
+	 * {@code NA} in a bit64 {@code integer64} vector.
+	 */
+	public static final long NA_INTEGER64 = Long.MIN_VALUE;
+
 	private REXPUtil() {
 		// no instantiation
 	}
@@ -42,6 +61,270 @@ public final class REXPUtil {
 		return new REXPInteger(array);
 	}
 
+	/**
+	 * Convert array to {@link REXPVector}. The floats are widened to doubles.
+	 * 
+	 * @param array
+	 *            array to convert
+	 * @return {@link REXPDouble}.
+	 */
+	public static REXPDouble toVector(float[] array) {
+		double[] doubles = new double[array.length];
+		for (int i = 0; i < array.length; i++) {
+			doubles[i] = array[i];
+		}
+		return new REXPDouble(doubles);
+	}
+
+	/**
+	 * Convert array to {@link REXPVector}. The longs are converted to a bit64
+	 * {@code integer64} vector, see {@link #toInteger64(long[])}.
+	 * 
+	 * @param array
+	 *            array to convert
+	 * @return {@link REXPDouble} of class {@code integer64}.
+	 */
+	public static REXPDouble toVector(long[] array) {
+		return toInteger64(array);
+	}
+
+	/**
+	 * Convert longs to a bit64 {@code integer64} vector. bit64 stores each
+	 * 64-bit integer in the 8 bytes of a double, so each long is reinterpreted
+	 * (not converted) as a double, and the vector is given the class
+	 * {@code integer64}. Values are lossless, and {@link #NA_INTEGER64} is
+	 * {@code NA}. Requires the bit64 package in R to operate on the result.
+	 * 
+	 * @param array
+	 *            longs
+	 * @return {@link REXPDouble} of class {@code integer64}.
+	 */
+	public static REXPDouble toInteger64(long[] array) {
+		double[] bits = new double[array.length];
+		for (int i = 0; i < array.length; i++) {
+			bits[i] = Double.longBitsToDouble(array[i]);
+		}
+		return new REXPDouble(bits, new REXPList(new RList(
+				new REXP[] { new REXPString(INTEGER64) },
+				new String[] { "class" })));
+	}
+
+	/**
+	 * Is {@code rexp} a bit64 {@code integer64} vector?
+	 * 
+	 * @param rexp
+	 *            R expression
+	 * @return {@code true} if {@code rexp} is a double vector of class
+	 *         {@code integer64}.
+	 */
+	public static boolean isInteger64(REXP rexp) {
+		return rexp instanceof REXPDouble && rexp.inherits(INTEGER64);
+	}
+
+	/**
+	 * Convert a bit64 {@code integer64} vector to longs. The reverse of
+	 * {@link #toInteger64(long[])}.
+	 * 
+	 * @param rexp
+	 *            double vector of class {@code integer64}
+	 * @return longs
+	 */
+	public static long[] fromInteger64(REXPDouble rexp) {
+		double[] bits = rexp.asDoubles();
+		long[] array = new long[bits.length];
+		for (int i = 0; i < bits.length; i++) {
+			array[i] = Double.doubleToRawLongBits(bits[i]);
+		}
+		return array;
+	}
+
+	/**
+	 * Convert a column-major array to a double matrix.
+	 * 
+	 * @param columnMajor
+	 *            values, column by column
+	 * @param nrow
+	 *            number of rows
+	 * @param ncol
+	 *            number of columns
+	 * @param rowNames
+	 *            row names, or {@code null}
+	 * @param colNames
+	 *            column names, or {@code null}
+	 * @return {@link REXPDouble} with {@code dim} and {@code dimnames}
+	 *         attributes.
+	 */
+	public static REXPDouble toMatrix(double[] columnMajor, int nrow,
+			int ncol, String[] rowNames, String[] colNames) {
+		checkMatrix(columnMajor.length, nrow, ncol, rowNames, colNames);
+		return new REXPDouble(columnMajor, matrixAttr(nrow, ncol, rowNames,
+				colNames));
+	}
+
+	/**
+	 * Convert a column-major array to an integer matrix.
+	 * 
+	 * @param columnMajor
+	 *            values, column by column
+	 * @param nrow
+	 *            number of rows
+	 * @param ncol
+	 *            number of columns
+	 * @param rowNames
+	 *            row names, or {@code null}
+	 * @param colNames
+	 *            column names, or {@code null}
+	 * @return {@link REXPInteger} with {@code dim} and {@code dimnames}
+	 *         attributes.
+	 */
+	public static REXPInteger toMatrix(int[] columnMajor, int nrow, int ncol,
+			String[] rowNames, String[] colNames) {
+		checkMatrix(columnMajor.length, nrow, ncol, rowNames, colNames);
+		return new REXPInteger(columnMajor, matrixAttr(nrow, ncol, rowNames,
+				colNames));
+	}
+
+	/**
+	 * Convert a list of row names and columns to an integer matrix, if the
+	 * columns are all plain integer vectors, or a double matrix, if they are
+	 * all plain integer or double vectors. Factors, which are integer vectors
+	 * with a class, are not plain.
+	 * 
+	 * @param rlist
+	 *            the row names, then the columns. Column names are taken from
+	 *            the names of {@code rlist}, if it is named.
+	 * @return matrix with {@code dim} and {@code dimnames} attributes, or
+	 *         {@code null} if a column is not a plain integer or double
+	 *         vector
+	 * @throws RFaceException
+	 *             if {@code rlist} is empty, its columns are not all as long
+	 *             as the row names, or the matrix would have more than
+	 *             {@link Integer#MAX_VALUE} elements
+	 * @throws REXPMismatchException
+	 *             if the row names or a column cannot be read
+	 */
+	public static REXPVector toMatrix(RList rlist) throws RFaceException,
+			REXPMismatchException {
+		if (rlist.isEmpty()) {
+			throw new RFaceException("no row names");
+		}
+
+		String[] rowNames = rlist.at(0).asStrings();
+		int nrow = rowNames.length;
+		int ncol = rlist.size() - 1;
+
+		long size = (long) nrow * ncol;
+		if (size > Integer.MAX_VALUE) {
+			throw new RFaceException(nrow + " x " + ncol
+					+ " matrix has more than " + Integer.MAX_VALUE
+					+ " elements");
+		}
+
+		String[] colNames = null;
+		if (rlist.isNamed()) {
+			colNames = new String[ncol];
+			System.arraycopy(rlist.keys(), 1, colNames, 0, ncol);
+		}
+
+		boolean integer = true;
+		boolean numeric = true;
+		for (int i = 1; i <= ncol; i++) {
+			REXP column = rlist.at(i);
+			if (column.length() != nrow) {
+				throw new RFaceException("column " + i + " is not of length "
+						+ nrow);
+			}
+			// NB: factors are REXPIntegers with a class
+			boolean plain = !column.hasAttribute("class");
+			integer &= plain && column instanceof REXPInteger;
+			numeric &=
+					plain
+							&& (column instanceof REXPInteger
+							|| column instanceof REXPDouble);
+		}
+
+		if (!numeric) {
+			return null;
+		}
+
+		// copy the columns consecutively, ie: column-major
+		if (integer) {
+			int[] values = new int[(int) size];
+			for (int i = 0; i < ncol; i++) {
+				System.arraycopy(rlist.at(i + 1).asIntegers(), 0, values, i
+						* nrow, nrow);
+			}
+			return toMatrix(values, nrow, ncol, rowNames, colNames);
+		} else {
+			double[] values = new double[(int) size];
+			for (int i = 0; i < ncol; i++) {
+				REXP column = rlist.at(i + 1);
+				if (column instanceof REXPInteger) {
+					// asDoubles() would widen NA to a number
+					int[] ints = column.asIntegers();
+					for (int j = 0; j < nrow; j++) {
+						values[i * nrow + j] =
+								REXPInteger.isNA(ints[j]) ? REXPDouble.NA
+										: ints[j];
+					}
+				} else {
+					System.arraycopy(column.asDoubles(), 0, values, i * nrow,
+							nrow);
+				}
+			}
+			return toMatrix(values, nrow, ncol, rowNames, colNames);
+		}
+	}
+
+	private static void checkMatrix(int length, int nrow, int ncol,
+			String[] rowNames, String[] colNames) {
+		if (nrow < 0 || ncol < 0 || (long) nrow * ncol != length) {
+			throw new IllegalArgumentException("Cannot create " + nrow
+					+ " x " + ncol + " matrix from " + length + " values");
+		}
+		if (rowNames != null && rowNames.length != nrow) {
+			throw new IllegalArgumentException(rowNames.length
+					+ " row names for " + nrow + " rows");
+		}
+		if (colNames != null && colNames.length != ncol) {
+			throw new IllegalArgumentException(colNames.length
+					+ " column names for " + ncol + " columns");
+		}
+	}
+
+	/**
+	 * Matrix attributes.
+	 * 
+	 * @param nrow
+	 *            number of rows
+	 * @param ncol
+	 *            number of columns
+	 * @param rowNames
+	 *            row names, or {@code null}
+	 * @param colNames
+	 *            column names, or {@code null}
+	 * @return {@code dim} attribute, and {@code dimnames} attribute if there
+	 *         are row or column names.
+	 */
+	private static REXPList matrixAttr(int nrow, int ncol, String[] rowNames,
+			String[] colNames) {
+		REXP dim = new REXPInteger(new int[] { nrow, ncol });
+
+		if (rowNames == null && colNames == null) {
+			return new REXPList(new RList(new REXP[] { dim },
+					new String[] { "dim" }));
+		}
+
+		REXP dimnames =
+				new REXPGenericVector(new RList(new REXP[] {
+						rowNames == null ? new REXPNull() : new REXPString(
+								rowNames),
+						colNames == null ? new REXPNull() : new REXPString(
+								colNames) }));
+		return new REXPList(new RList(new REXP[] { dim, dimnames },
+				new String[] { "dim", "dimnames" }));
+	}
+
 	/**
 	 * Convert array to {@link REXPVector}.
 	 * 
@@ -88,6 +371,10 @@ public final class REXPUtil {
 			return new REXPString((String[]) array);
 		} else if (arrayClass == boolean[].class) {
 			return new REXPLogical((boolean[]) array);
+		} else if (arrayClass == float[].class) {
+			return toVector((float[]) array);
+		} else if (arrayClass == long[].class) {
+			return toVector((long[]) array);
 		} else {
 			throw new IllegalArgumentException("Cannot convert "
 					+ arrayClass.getCanonicalName() + " to R object");
@@ -121,5 +408,81 @@ public final class REXPUtil {
 		}
 	
 	}
-	
+
+	/**
+	 * Convert the values of a {@link Map} to a named vector, named by key.
+	 * Entries with an empty key or a {@code null} value are skipped, as R
+	 * omits an element assigned {@code NULL}. If all values are of the same
+	 * type ({@link Double}, {@link Integer},
+	 * {@link String} or {@link Boolean}) an atomic vector of that type is
+	 * returned, otherwise a list with each value converted by
+	 * {@link #toREXP(Object)}. Either way the result is a single REXP, so it
+	 * can be assigned to R in one call.
+	 * 
+	 * @param map
+	 *            map of names to values
+	 * @return named atomic vector, or named {@link REXPGenericVector}
+	 */
+	public static REXPVector toNamedVector(Map<String, ?> map) {
+		List<String> names = new ArrayList<String>(map.size());
+		List<Object> values = new ArrayList<Object>(map.size());
+		Class<?> valueClass = null;
+		boolean atomic = true;
+
+		for (Map.Entry<String, ?> entry : map.entrySet()) {
+			String key = entry.getKey();
+			Object value = entry.getValue();
+
+			if (key == null || "".equals(key) || value == null) {
+				continue;
+			}
+
+			names.add(key);
+			values.add(value);
+
+			if (valueClass == null) {
+				valueClass = value.getClass();
+			} else if (valueClass != value.getClass()) {
+				atomic = false;
+			}
+		}
+
+		REXPList namesAttr =
+				new REXPList(new RList(new REXP[] { new REXPString(names
+						.toArray(new String[names.size()])) },
+						new String[] { "names" }));
+		int size = values.size();
+
+		if (atomic && valueClass == Double.class) {
+			double[] array = new double[size];
+			for (int i = 0; i < size; i++) {
+				array[i] = (Double) values.get(i);
+			}
+			return new REXPDouble(array, namesAttr);
+		} else if (atomic && valueClass == Integer.class) {
+			int[] array = new int[size];
+			for (int i = 0; i < size; i++) {
+				array[i] = (Integer) values.get(i);
+			}
+			return new REXPInteger(array, namesAttr);
+		} else if (atomic && valueClass == String.class) {
+			return new REXPString(values.toArray(new String[size]), namesAttr);
+		} else if (atomic && valueClass == Boolean.class) {
+			byte[] array = new byte[size];
+			for (int i = 0; i < size; i++) {
+				array[i] =
+						((Boolean) values.get(i)) ? REXPLogical.TRUE
+								: REXPLogical.FALSE;
+			}
+			return new REXPLogical(array, namesAttr);
+		}
+
+		REXP[] rexps = new REXP[size];
+		for (int i = 0; i < size; i++) {
+			rexps[i] = toREXP(values.get(i));
+		}
+		return new REXPGenericVector(new RList(rexps, names
+				.toArray(new String[size])));
+	}
+
 }
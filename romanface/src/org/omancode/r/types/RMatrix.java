@@ -42,6 +42,11 @@ import org.rosuda.REngine.REXPMismatchException;
  * The first column of the generated dataset is the names of the rows of the
  * matrix (if it has any) eg: {@code "Year 1" "Year 2" "Year 3" "Year 4"}.
  * 
+ * Values are held as returned by R, ie: a flat array in column-major order,
+ * and can be accessed directly via {@link #get(int, int)}, or without copying
+ * via the row and column {@link Slice}s returned by {@link #getRow(int)} and
+ * {@link #getColumn(int)}.
+ * 
  * @author Oliver Mannion
  * @version $Revision$
  */
@@ -68,15 +73,20 @@ public class RMatrix implements CBuilder {
 	private final String[] colNames;
 
 	/**
-	 * Matrix of values in the table.
+	 * Values of the matrix in column-major order, ie: as stored by R.
 	 */
-	private final double[][] values;
+	private final double[] values;
 
 	/**
 	 * Number of rows.
 	 */
 	private final int numRows;
 
+	/**
+	 * Number of columns.
+	 */
+	private final int numCols;
+
 	private int currentRowIndex;
 
 	/**
@@ -125,9 +135,11 @@ public class RMatrix implements CBuilder {
 						: dimNames[1];
 
 		try {
-			// set values
-			values = rexp.asDoubleMatrix();
+			// set values. For a REXPDouble this is R's buffer itself,
+			// not a copy.
+			values = rexp.asDoubles();
 			numRows = rexp.dim()[0];
+			numCols = rexp.dim()[1];
 
 		} catch (REXPMismatchException e) {
 			throw new RFaceException(e);
@@ -167,6 +179,181 @@ public class RMatrix implements CBuilder {
 				.getDimensions(rexp) == 2));
 	}
 
+	/**
+	 * Number of rows.
+	 * 
+	 * @return row count
+	 */
+	public int getNumRows() {
+		return numRows;
+	}
+
+	/**
+	 * Number of columns, excluding the row names.
+	 * 
+	 * @return column count
+	 */
+	public int getNumCols() {
+		return numCols;
+	}
+
+	/**
+	 * Get a value.
+	 * 
+	 * @param row
+	 *            row index
+	 * @param col
+	 *            column index
+	 * @return value
+	 */
+	public double get(int row, int col) {
+		if (row < 0 || row >= numRows) {
+			throw new IndexOutOfBoundsException("Row " + row
+					+ " out of bounds for " + numRows + " rows");
+		}
+		if (col < 0 || col >= numCols) {
+			throw new IndexOutOfBoundsException("Column " + col
+					+ " out of bounds for " + numCols + " columns");
+		}
+		return values[col * numRows + row];
+	}
+
+	/**
+	 * Get the values of the matrix in column-major order. This is the array
+	 * held by this matrix, not a copy, and must not be modified.
+	 * 
+	 * @return values in column-major order
+	 */
+	public double[] getValues() {
+		return values;
+	}
+
+	/**
+	 * Get a view of a row. The view is backed by this matrix, no values are
+	 * copied.
+	 * 
+	 * @param row
+	 *            row index
+	 * @return row view
+	 */
+	public Slice getRow(int row) {
+		if (row < 0 || row >= numRows) {
+			throw new IndexOutOfBoundsException("Row " + row
+					+ " out of bounds for " + numRows + " rows");
+		}
+		return new Slice(values, row, numRows, numCols);
+	}
+
+	/**
+	 * Get a view of a column. The view is backed by this matrix, no values are
+	 * copied.
+	 * 
+	 * @param col
+	 *            column index
+	 * @return column view
+	 */
+	public Slice getColumn(int col) {
+		if (col < 0 || col >= numCols) {
+			throw new IndexOutOfBoundsException("Column " + col
+					+ " out of bounds for " + numCols + " columns");
+		}
+		return new Slice(values, col * numRows, 1, numRows);
+	}
+
+	/**
+	 * A strided view of a flat array, eg: a row or column of an
+	 * {@link RMatrix}. Element {@code i} of the view is
+	 * {@code values[offset + i * stride]}. Iterate with:
+	 * 
+	 * <pre>
+	 * for (int i = 0; i &lt; slice.size(); i++) {
+	 * 	total += slice.get(i);
+	 * }
+	 * </pre>
+	 */
+	public static final class Slice {
+
+		private final double[] values;
+
+		private final int offset;
+
+		private final int stride;
+
+		private final int size;
+
+		/**
+		 * Create a view.
+		 * 
+		 * @param values
+		 *            backing array
+		 * @param offset
+		 *            index in {@code values} of the first element
+		 * @param stride
+		 *            distance in {@code values} between elements
+		 * @param size
+		 *            number of elements
+		 */
+		public Slice(double[] values, int offset, int stride, int size) {
+			this.values = values;
+			this.offset = offset;
+			this.stride = stride;
+			this.size = size;
+		}
+
+		/**
+		 * Number of elements.
+		 * 
+		 * @return size
+		 */
+		public int size() {
+			return size;
+		}
+
+		/**
+		 * Get an element.
+		 * 
+		 * @param index
+		 *            index of the element in the view
+		 * @return element
+		 */
+		public double get(int index) {
+			if (index < 0 || index >= size) {
+				throw new IndexOutOfBoundsException("Index " + index
+						+ " out of bounds for size " + size);
+			}
+			return values[offset + index * stride];
+		}
+
+		/**
+		 * Copy the elements into {@code dest}.
+		 * 
+		 * @param dest
+		 *            destination array
+		 * @param destOffset
+		 *            position in {@code dest} of the first element
+		 */
+		public void copyTo(double[] dest, int destOffset) {
+			if (stride == 1) {
+				System.arraycopy(values, offset, dest, destOffset, size);
+			} else {
+				for (int i = 0, j = offset; i < size; i++, j += stride) {
+					dest[destOffset + i] = values[j];
+				}
+			}
+		}
+
+		/**
+		 * Copy the elements into a new array.
+		 * 
+		 * @return elements
+		 */
+		public double[] toArray() {
+			double[] dest = new double[size];
+			copyTo(dest, 0);
+			return dest;
+		}
+	}
+
 	@Override
 	public void close() {
 		// nothing to do
@@ -258,17 +445,17 @@ public class RMatrix implements CBuilder {
 
 		if (rowNames == null) {
 			// row names column
-			row = new Object[colNames.length];
-			for (int i = 0; i < colNames.length; i++) {
-				row[i] = values[currentRowIndex][i];
+			row = new Object[numCols];
+			for (int i = 0; i < numCols; i++) {
+				row[i] = get(currentRowIndex, i);
 			}
 		} else {
-			row = new Object[colNames.length + 1];
+			row = new Object[numCols + 1];
 
 			// first col is row dimnames
 			row[0] = rowNames[currentRowIndex];
-			for (int i = 0; i < colNames.length; i++) {
-				row[i + 1] = values[currentRowIndex][i];
+			for (int i = 0; i < numCols; i++) {
+				row[i + 1] = get(currentRowIndex, i);
 			}
 		}
 		currentRowIndex++;
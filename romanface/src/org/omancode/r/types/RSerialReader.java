@@ -0,0 +1,743 @@
+package org.omancode.r.types;
+
+import static org.omancode.r.types.RSerialWriter.CHARSXP;
+import static org.omancode.r.types.RSerialWriter.HAS_ATTR_BIT;
+import static org.omancode.r.types.RSerialWriter.HAS_TAG_BIT;
+import static org.omancode.r.types.RSerialWriter.INTSXP;
+import static org.omancode.r.types.RSerialWriter.LEVELS_SHIFT;
+import static org.omancode.r.types.RSerialWriter.LGLSXP;
+import static org.omancode.r.types.RSerialWriter.LISTSXP;
+import static org.omancode.r.types.RSerialWriter.NILVALUE_SXP;
+import static org.omancode.r.types.RSerialWriter.RAWSXP;
+import static org.omancode.r.types.RSerialWriter.REALSXP;
+import static org.omancode.r.types.RSerialWriter.STRSXP;
+import static org.omancode.r.types.RSerialWriter.SYMSXP;
+import static org.omancode.r.types.RSerialWriter.UTF8_MASK;
+import static org.omancode.r.types.RSerialWriter.VECSXP;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+
+import org.omancode.r.RFaceException;
+import org.rosuda.REngine.REXP;
+import org.rosuda.REngine.REXPDouble;
+import org.rosuda.REngine.REXPFactor;
+import org.rosuda.REngine.REXPGenericVector;
+import org.rosuda.REngine.REXPInteger;
+import org.rosuda.REngine.REXPList;
+import org.rosuda.REngine.REXPLogical;
+import org.rosuda.REngine.REXPMismatchException;
+import org.rosuda.REngine.REXPNull;
+import org.rosuda.REngine.REXPRaw;
+import org.rosuda.REngine.REXPString;
+import org.rosuda.REngine.REXPSymbol;
+import org.rosuda.REngine.RList;
+
+/**
+ * Reads R's serialization format, ie: the format written by
+ * {@code serialize(x, NULL)} and {@code saveRDS}, without R. Produces the same
+ * {@link REXP}s as the R engine, so the result can be used to create an
+ * {@link RDataFrame}, {@link RMatrix} or {@link RVector} as usual.
+ * 
+ * Reads XDR (big-endian) format versions 2 and 3, optionally gzipped.
+ * Vectors, lists, dataframes, factors, matrices and their attributes are
+ * read, including ALTREP compact sequences and wrappers. Other objects, eg:
+ * environments and functions, are read past and returned as
+ * {@link REXPNull}. Byte code cannot be read.
+ * 
+ * A reader holds no shared state, so files can be decoded on many threads
+ * at once, without the R engine.
+ * 
+ * eg:
+ * 
+ * <pre>
+ * RDataFrame df = RSerialReader.readDataFrame(new File(&quot;results.rds&quot;));
+ * </pre>
+ * 
+ * @author Oliver Mannion
+ * @version $Revision$
+ */
+public class RSerialReader {
+
+	/**
+	 * SEXP types read past without being converted.
+	 */
+	private static final int CLOSXP = 3;
+	private static final int ENVSXP = 4;
+	private static final int PROMSXP = 5;
+	private static final int LANGSXP = 6;
+	private static final int SPECIALSXP = 7;
+	private static final int BUILTINSXP = 8;
+	private static final int CPLXSXP = 15;
+	private static final int DOTSXP = 17;
+	private static final int EXPRSXP = 20;
+	private static final int BCODESXP = 21;
+	private static final int EXTPTRSXP = 22;
+	private static final int WEAKREFSXP = 23;
+	private static final int S4SXP = 25;
+
+	/**
+	 * Pseudo SEXP types used only in serialization.
+	 */
+	private static final int REFSXP = 255;
+	private static final int GLOBALENV_SXP = 253;
+	private static final int UNBOUNDVALUE_SXP = 252;
+	private static final int MISSINGARG_SXP = 251;
+	private static final int BASENAMESPACE_SXP = 250;
+	private static final int NAMESPACESXP = 249;
+	private static final int PACKAGESXP = 248;
+	private static final int PERSISTSXP = 247;
+	private static final int EMPTYENV_SXP = 242;
+	private static final int BASEENV_SXP = 241;
+	private static final int ATTRLANGSXP = 240;
+	private static final int ATTRLISTSXP = 239;
+	private static final int ALTREP_SXP = 238;
+
+	/**
+	 * CHARSXP encoding flags, in the levels bits of the item flags.
+	 */
+	private static final int LATIN1_MASK = 1 << 2;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final Charset LATIN1 = Charset.forName("ISO-8859-1");
+
+	/**
+	 * Size of the buffer primitive arrays are decoded through.
+	 */
+	private static final int BUFFER_SIZE = 8192;
+
+	private final DataInputStream in;
+
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+
+	/**
+	 * Objects that may be referred to later in the stream, ie: symbols and
+	 * environments, in the order read.
+	 */
+	private final List<REXP> refs = new ArrayList<REXP>();
+
+	/**
+	 * Create a reader, and read the stream header. The stream may be
+	 * gzipped.
+	 * 
+	 * @param in
+	 *            stream to read from
+	 * @throws IOException
+	 *             if problem reading, or the stream isn't in XDR serialization
+	 *             format version 2 or 3
+	 */
+	public RSerialReader(InputStream in) throws IOException {
+		InputStream is = new BufferedInputStream(in);
+
+		// gzip magic number is 0x1f 0x8b
+		is.mark(2);
+		int b1 = is.read();
+		int b2 = is.read();
+		is.reset();
+		if (b1 == 0x1f && b2 == 0x8b) {
+			is = new BufferedInputStream(new GZIPInputStream(is));
+		}
+
+		this.in = new DataInputStream(is);
+		readHeader();
+	}
+
+	/**
+	 * Read an .rds file, as written by {@code saveRDS}.
+	 * 
+	 * @param file
+	 *            file, optionally gzipped
+	 * @return object
+	 * @throws IOException
+	 *             if problem reading
+	 */
+	public static REXP readRDS(File file) throws IOException {
+		InputStream is = new FileInputStream(file);
+		try {
+			return new RSerialReader(is).readObject();
+		} finally {
+			is.close();
+		}
+	}
+
+	/**
+	 * Read a serialized object, as returned by {@code serialize(x, NULL)}.
+	 * 
+	 * @param bytes
+	 *            serialized object
+	 * @return object
+	 * @throws IOException
+	 *             if problem reading
+	 */
+	public static REXP unserialize(byte[] bytes) throws IOException {
+		return new RSerialReader(new ByteArrayInputStream(bytes)).readObject();
+	}
+
+	/**
+	 * Read a dataframe from an .rds file.
+	 * 
+	 * @param file
+	 *            file, optionally gzipped
+	 * @return dataframe, named after the file
+	 * @throws IOException
+	 *             if problem reading, or the file doesn't hold a dataframe
+	 */
+	public static RDataFrame readDataFrame(File file) throws IOException {
+		return new RDataFrame(file.getName(), readRDS(file));
+	}
+
+	/**
+	 * Read a matrix from an .rds file.
+	 * 
+	 * @param file
+	 *            file, optionally gzipped
+	 * @return matrix, named after the file
+	 * @throws IOException
+	 *             if problem reading, or the file doesn't hold a matrix
+	 */
+	public static RMatrix readMatrix(File file) throws IOException {
+		return new RMatrix(file.getName(), readRDS(file));
+	}
+
+	private void readHeader() throws IOException {
+		byte format = in.readByte();
+		byte newline = in.readByte();
+		if (format != 'X' || newline != '\n') {
+			throw new IOException("Not in XDR serialization format");
+		}
+
+		int version = in.readInt();
+		in.readInt(); // writer version
+		in.readInt(); // min reader version
+		if (version == 3) {
+			// native encoding
+			skip(in.readInt());
+		} else if (version != 2) {
+			throw new IOException("Unsupported serialization format version "
+					+ version);
+		}
+	}
+
+	/**
+	 * Read the next object from the stream.
+	 * 
+	 * @return object
+	 * @throws IOException
+	 *             if problem reading
+	 */
+	public REXP readObject() throws IOException {
+		return readItem(in.readInt());
+	}
+
+	/**
+	 * Read an item.
+	 * 
+	 * @param flags
+	 *            the item's flags, already read
+	 * @return item
+	 * @throws IOException
+	 *             if problem reading
+	 */
+	private REXP readItem(int flags) throws IOException {
+		int type = flags & 0xFF;
+		boolean hasAttr = (flags & HAS_ATTR_BIT) != 0;
+
+		switch (type) {
+		case NILVALUE_SXP:
+		case GLOBALENV_SXP:
+		case UNBOUNDVALUE_SXP:
+		case MISSINGARG_SXP:
+		case BASENAMESPACE_SXP:
+		case EMPTYENV_SXP:
+		case BASEENV_SXP:
+			return new REXPNull();
+		case REFSXP:
+			int index = flags >>> 8;
+			return refs.get((index == 0 ? in.readInt() : index) - 1);
+		case PERSISTSXP:
+		case PACKAGESXP:
+		case NAMESPACESXP:
+			in.readInt(); // 0
+			String[] info = readCharsxps(in.readInt());
+			REXP ref = new REXPString(info);
+			refs.add(ref);
+			return ref;
+		case SYMSXP:
+			REXP symbol = new REXPSymbol(readCharsxp(in.readInt()));
+			refs.add(symbol);
+			return symbol;
+		case ENVSXP:
+			REXP env = new REXPNull();
+			refs.add(env);
+			in.readInt(); // locked
+			readObject(); // enclosure
+			readObject(); // frame
+			readObject(); // hash table
+			readObject(); // attributes
+			return env;
+		case LISTSXP:
+		case ATTRLISTSXP:
+			return readPairlist(flags);
+		case LANGSXP:
+		case ATTRLANGSXP:
+		case CLOSXP:
+		case PROMSXP:
+		case DOTSXP:
+			readPairlist(flags);
+			return new REXPNull();
+		case EXTPTRSXP:
+			refs.add(new REXPNull());
+			readObject(); // protected value
+			readObject(); // tag
+			readAttributes(hasAttr);
+			return new REXPNull();
+		case WEAKREFSXP:
+			refs.add(new REXPNull());
+			readAttributes(hasAttr);
+			return new REXPNull();
+		case SPECIALSXP:
+		case BUILTINSXP:
+			skip(in.readInt());
+			readAttributes(hasAttr);
+			return new REXPNull();
+		case CHARSXP:
+			return new REXPString(readCharsxp(flags));
+		case S4SXP:
+			readAttributes(hasAttr);
+			return new REXPNull();
+		case ALTREP_SXP:
+			return readAltrep();
+		case BCODESXP:
+			throw new UnsupportedTypeException("Cannot read byte code");
+		default:
+			return readVector(type, hasAttr);
+		}
+	}
+
+	/**
+	 * Read a vector.
+	 * 
+	 * @param type
+	 *            SEXP type
+	 * @param hasAttr
+	 *            is the vector followed by attributes?
+	 * @return vector
+	 * @throws IOException
+	 *             if problem reading
+	 */
+	private REXP readVector(int type, boolean hasAttr) throws IOException {
+		int length = readLength();
+
+		switch (type) {
+		case LGLSXP:
+			int[] ints = readInts(length);
+			byte[] logicals = new byte[length];
+			for (int i = 0; i < length; i++) {
+				if (REXPInteger.isNA(ints[i])) {
+					logicals[i] = REXPLogical.NA;
+				} else {
+					logicals[i] = ints[i] == 0 ? REXPLogical.FALSE
+							: REXPLogical.TRUE;
+				}
+			}
+			return new REXPLogical(logicals, readAttributes(hasAttr));
+		case INTSXP:
+			return createInteger(readInts(length), readAttributes(hasAttr));
+		case REALSXP:
+			return new REXPDouble(readDoubles(length), readAttributes(hasAttr));
+		case STRSXP:
+			return new REXPString(readCharsxps(length),
+					readAttributes(hasAttr));
+		case RAWSXP:
+			byte[] bytes = new byte[length];
+			in.readFully(bytes);
+			return new REXPRaw(bytes, readAttributes(hasAttr));
+		case VECSXP:
+		case EXPRSXP:
+			REXP[] elements = new REXP[length];
+			for (int i = 0; i < length; i++) {
+				elements[i] = readObject();
+			}
+			REXPList attr = readAttributes(hasAttr);
+			return new REXPGenericVector(new RList(elements,
+					getNames(attr)), attr);
+		case CPLXSXP:
+			throw new UnsupportedTypeException(
+					"Cannot read complex vectors");
+		default:
+			throw new UnsupportedTypeException("Cannot read SEXP type "
+					+ type);
+		}
+	}
+
+	/**
+	 * Create an integer vector, or a factor if {@code attr} has a class of
+	 * factor.
+	 * 
+	 * @param ints
+	 *            values
+	 * @param attr
+	 *            attributes, or {@code null}
+	 * @return integer vector or factor
+	 */
+	private static REXP createInteger(int[] ints, REXPList attr) {
+		if (attr != null) {
+			REXP klass = attr.asList().at("class");
+			REXP levels = attr.asList().at("levels");
+			if (klass instanceof REXPString
+					&& levels instanceof REXPString
+					&& contains(((REXPString) klass).asStrings(), "factor")) {
+				return new REXPFactor(ints, ((REXPString) levels)
+						.asStrings(), attr);
+			}
+		}
+		return new REXPInteger(ints, attr);
+	}
+
+	private static boolean contains(String[] strings, String value) {
+		for (String string : strings) {
+			if (value.equals(string)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Get the {@code names} attribute.
+	 * 
+	 * @param attr
+	 *            attributes, or {@code null}
+	 * @return names, or {@code null} if none
+	 */
+	private static String[] getNames(REXPList attr) {
+		if (attr == null) {
+			return null;
+		}
+		REXP names = attr.asList().at("names");
+		return names instanceof REXPString ? ((REXPString) names).asStrings()
+				: null;
+	}
+
+	/**
+	 * Read an ALTREP object. Compact integer and real sequences are expanded,
+	 * wrappers are unwrapped, and deferred strings are converted. Other
+	 * classes cannot be read, because their state is only meaningful to the
+	 * package that defined them.
+	 * 
+	 * @return object
+	 * @throws IOException
+	 *             if problem reading
+	 */
+	private REXP readAltrep() throws IOException {
+		REXP info = readObject();
+		REXP state = readObject();
+		REXP attrItem = readObject();
+		REXPList attr =
+				attrItem instanceof REXPList ? (REXPList) attrItem : null;
+
+		String klass;
+		try {
+			klass = ((REXPList) info).asList().at(0).asString();
+		} catch (REXPMismatchException e) {
+			throw new RFaceException("Cannot read ALTREP class", e);
+		}
+
+		try {
+			if ("compact_intseq".equals(klass)) {
+				double[] seq = state.asDoubles();
+				int[] ints = new int[(int) seq[0]];
+				for (int i = 0; i < ints.length; i++) {
+					ints[i] = (int) (seq[1] + i * seq[2]);
+				}
+				return createInteger(ints, attr);
+			} else if ("compact_realseq".equals(klass)) {
+				double[] seq = state.asDoubles();
+				double[] doubles = new double[(int) seq[0]];
+				for (int i = 0; i < doubles.length; i++) {
+					doubles[i] = seq[1] + i * seq[2];
+				}
+				return new REXPDouble(doubles, attr);
+			} else if (klass.startsWith("wrap_")) {
+				// state is list(x, meta)
+				return withAttributes(state.asList().at(0), attr);
+			} else if ("deferred_string".equals(klass)) {
+				// state is a pairlist of the vector to convert, and
+				// possibly the strings converted so far
+				REXP arg = state.asList().at(0);
+				return new REXPString(toStrings(arg), attr);
+			}
+		} catch (REXPMismatchException e) {
+			throw new RFaceException("Cannot read ALTREP " + klass, e);
+		}
+
+		throw new UnsupportedTypeException("Cannot read ALTREP class " + klass);
+	}
+
+	/**
+	 * Convert numbers to strings, as {@code as.character} would for integers
+	 * and for doubles with up to 15 significant digits.
+	 * 
+	 * @param rexp
+	 *            integer or double vector
+	 * @return strings
+	 * @throws UnsupportedTypeException
+	 *             if {@code rexp} is not an integer or double vector
+	 */
+	private static String[] toStrings(REXP rexp)
+			throws UnsupportedTypeException {
+		if (rexp instanceof REXPInteger) {
+			int[] ints = ((REXPInteger) rexp).asIntegers();
+			String[] strings = new String[ints.length];
+			for (int i = 0; i < ints.length; i++) {
+				strings[i] =
+						REXPInteger.isNA(ints[i]) ? null : Integer
+								.toString(ints[i]);
+			}
+			return strings;
+		} else if (rexp instanceof REXPDouble) {
+			double[] doubles = ((REXPDouble) rexp).asDoubles();
+			String[] strings = new String[doubles.length];
+			for (int i = 0; i < doubles.length; i++) {
+				strings[i] =
+						REXPDouble.isNA(doubles[i]) ? null : formatDouble(doubles[i]);
+			}
+			return strings;
+		}
+		throw new UnsupportedTypeException("Cannot convert "
+				+ rexp.getClass().getName() + " to strings");
+	}
+
+	private static String formatDouble(double value) {
+		if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+			return Long.toString((long) value);
+		}
+		String formatted = String.format(Locale.ENGLISH, "%.15g", value);
+		// drop trailing zeros of the fraction, keeping any exponent
+		return formatted.replaceAll("\\.?0+(e|$)", "$1");
+	}
+
+	/**
+	 * Set the attributes of a vector read as the state of an ALTREP wrapper.
+	 * 
+	 * @param rexp
+	 *            vector
+	 * @param attr
+	 *            attributes, or {@code null} to keep those of {@code rexp}
+	 * @return vector with attributes
+	 * @throws UnsupportedTypeException
+	 *             if {@code rexp} is not a vector
+	 * @throws RFaceException
+	 *             if problem reading {@code rexp}
+	 */
+	private static REXP withAttributes(REXP rexp, REXPList attr)
+			throws UnsupportedTypeException, RFaceException {
+		if (attr == null) {
+			return rexp;
+		}
+
+		try {
+			if (rexp instanceof REXPDouble) {
+				return new REXPDouble(rexp.asDoubles(), attr);
+			} else if (rexp instanceof REXPInteger) {
+				return createInteger(rexp.asIntegers(), attr);
+			} else if (rexp instanceof REXPLogical) {
+				return new REXPLogical(rexp.asBytes(), attr);
+			} else if (rexp instanceof REXPString) {
+				return new REXPString(rexp.asStrings(), attr);
+			} else if (rexp instanceof REXPRaw) {
+				return new REXPRaw(rexp.asBytes(), attr);
+			} else if (rexp instanceof REXPGenericVector) {
+				return new REXPGenericVector(new RList(rexp.asList(),
+						getNames(attr)), attr);
+			}
+		} catch (REXPMismatchException e) {
+			throw new RFaceException(e.getMessage(), e);
+		}
+		throw new UnsupportedTypeException("Cannot set attributes of "
+				+ rexp.getClass().getName());
+	}
+
+	/**
+	 * Read a pairlist, iteratively rather than recursively along the
+	 * {@code CDR}s.
+	 * 
+	 * @param flags
+	 *            flags of the first node, already read
+	 * @return list of the node values, named by their tags
+	 * @throws IOException
+	 *             if problem reading
+	 */
+	private REXPList readPairlist(int flags) throws IOException {
+		List<REXP> values = new ArrayList<REXP>();
+		List<String> tags = new ArrayList<String>();
+		REXPList attr = null;
+
+		int node = flags;
+		while (true) {
+			int type = node & 0xFF;
+			if (type != LISTSXP && type != ATTRLISTSXP && type != LANGSXP
+					&& type != ATTRLANGSXP && type != CLOSXP
+					&& type != PROMSXP && type != DOTSXP) {
+				// end of list, ie: NILVALUE_SXP or an improper CDR
+				readItem(node);
+				break;
+			}
+
+			boolean nodeHasAttr =
+					(node & HAS_ATTR_BIT) != 0 || type == ATTRLISTSXP
+							|| type == ATTRLANGSXP;
+			REXPList nodeAttr = readAttributes(nodeHasAttr);
+			if (attr == null) {
+				attr = nodeAttr;
+			}
+
+			String tag = null;
+			if ((node & HAS_TAG_BIT) != 0) {
+				REXP tagItem = readObject();
+				if (tagItem instanceof REXPSymbol) {
+					tag = ((REXPSymbol) tagItem).asString();
+				}
+			}
+
+			tags.add(tag);
+			values.add(readObject());
+			node = in.readInt();
+		}
+
+		return new REXPList(new RList(values, tags), attr);
+	}
+
+	/**
+	 * Read the attribute pairlist of an item, if it has one.
+	 * 
+	 * @param hasAttr
+	 *            does the item have attributes?
+	 * @return attributes, or {@code null} if none
+	 * @throws IOException
+	 *             if problem reading
+	 */
+	private REXPList readAttributes(boolean hasAttr) throws IOException {
+		if (!hasAttr) {
+			return null;
+		}
+		REXP attr = readObject();
+		return attr instanceof REXPList ? (REXPList) attr : null;
+	}
+
+	/**
+	 * Read a vector length. Long vectors are not supported.
+	 * 
+	 * @return length
+	 * @throws IOException
+	 *             if problem reading, or the vector is too long
+	 */
+	private int readLength() throws IOException {
+		int length = in.readInt();
+		if (length == -1) {
+			long upper = in.readInt() & 0xFFFFFFFFL;
+			long lower = in.readInt() & 0xFFFFFFFFL;
+			long longLength = (upper << 32) + lower;
+			if (longLength > Integer.MAX_VALUE) {
+				throw new UnsupportedTypeException("Cannot read vector of "
+						+ longLength + " elements");
+			}
+			length = (int) longLength;
+		}
+		return length;
+	}
+
+	/**
+	 * Read {@code length} CHARSXP items.
+	 * 
+	 * @param length
+	 *            number of items
+	 * @return strings
+	 * @throws IOException
+	 *             if problem reading
+	 */
+	private String[] readCharsxps(int length) throws IOException {
+		String[] strings = new String[length];
+		for (int i = 0; i < length; i++) {
+			strings[i] = readCharsxp(in.readInt());
+		}
+		return strings;
+	}
+
+	/**
+	 * Read a CHARSXP item.
+	 * 
+	 * @param flags
+	 *            the item's flags, already read
+	 * @return string, or {@code null} if {@code NA}
+	 * @throws IOException
+	 *             if problem reading
+	 */
+	private String readCharsxp(int flags) throws IOException {
+		if ((flags & 0xFF) != CHARSXP) {
+			throw new IOException("Expected CHARSXP, found SEXP type "
+					+ (flags & 0xFF));
+		}
+
+		int length = in.readInt();
+		if (length == -1) {
+			return null;
+		}
+
+		byte[] bytes = length <= buffer.length ? buffer : new byte[length];
+		in.readFully(bytes, 0, length);
+
+		int levels = flags >>> LEVELS_SHIFT;
+		Charset charset =
+				(levels & LATIN1_MASK) != 0 && (levels & UTF8_MASK) == 0
+						? LATIN1 : UTF8;
+		return new String(bytes, 0, length, charset);
+	}
+
+	private int[] readInts(int length) throws IOException {
+		int[] values = new int[length];
+		int perBuffer = BUFFER_SIZE / 4;
+		for (int off = 0; off < length; off += perBuffer) {
+			int n = Math.min(perBuffer, length - off);
+			in.readFully(buffer, 0, n * 4);
+			ByteBuffer.wrap(buffer, 0, n * 4).asIntBuffer().get(values, off, n);
+		}
+		return values;
+	}
+
+	private double[] readDoubles(int length) throws IOException {
+		double[] values = new double[length];
+		int perBuffer = BUFFER_SIZE / 8;
+		for (int off = 0; off < length; off += perBuffer) {
+			int n = Math.min(perBuffer, length - off);
+			in.readFully(buffer, 0, n * 8);
+			ByteBuffer.wrap(buffer, 0, n * 8).asDoubleBuffer().get(values, off,
+					n);
+		}
+		return values;
+	}
+
+	private void skip(int length) throws IOException {
+		int skipped = 0;
+		while (skipped < length) {
+			int n = in.skipBytes(length - skipped);
+			if (n <= 0) {
+				throw new IOException("Unexpected end of stream");
+			}
+			skipped += n;
+		}
+	}
+
+}
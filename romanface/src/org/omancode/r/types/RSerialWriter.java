@@ -0,0 +1,437 @@
+package org.omancode.r.types;
+
+import it.unimi.dsi.fastutil.bytes.ByteArrayList;
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import org.rosuda.REngine.REXPInteger;
+
+/**
+ * Writes {@link RVector}s in R's serialization format, ie: the format of
+ * {@code serialize(x, NULL)} and {@code saveRDS}, so they can be read by R's
+ * {@code unserialize} or {@code readRDS}. This is XDR (big-endian) format
+ * version 2.
+ * 
+ * A dataframe serialized this way can be assigned to R as a single raw vector
+ * and unserialized in one call, rather than being converted REXP by REXP. The
+ * same encoding can be used to write .rds files without R.
+ * 
+ * eg:
+ * 
+ * <pre>
+ * RSerialWriter.writeRDS(new RVectorList(people, Object.class), file);
+ * </pre>
+ * 
+ * @author Oliver Mannion
+ * @version $Revision$
+ */
+public class RSerialWriter {
+
+	/**
+	 * Serialization format version.
+	 */
+	public static final int VERSION = 2;
+
+	/**
+	 * R version that wrote the stream, 3.0.0.
+	 */
+	static final int WRITER_VERSION = rVersion(3, 0, 0);
+
+	/**
+	 * Earliest R version that can read the stream, 2.3.0.
+	 */
+	static final int MIN_READER_VERSION = rVersion(2, 3, 0);
+
+	/**
+	 * SEXP types.
+	 */
+	static final int SYMSXP = 1;
+	static final int LISTSXP = 2;
+	static final int CHARSXP = 9;
+	static final int LGLSXP = 10;
+	static final int INTSXP = 13;
+	static final int REALSXP = 14;
+	static final int STRSXP = 16;
+	static final int VECSXP = 19;
+	static final int RAWSXP = 24;
+	static final int NILVALUE_SXP = 254;
+
+	/**
+	 * Item flags.
+	 */
+	static final int IS_OBJECT_BIT = 1 << 8;
+	static final int HAS_ATTR_BIT = 1 << 9;
+	static final int HAS_TAG_BIT = 1 << 10;
+
+	/**
+	 * CHARSXP encoding flags, in the levels bits of the item flags.
+	 */
+	static final int UTF8_MASK = 1 << 3;
+	static final int ASCII_MASK = 1 << 6;
+	static final int LEVELS_SHIFT = 12;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * Size of the buffer primitive arrays are encoded through.
+	 */
+	private static final int BUFFER_SIZE = 8192;
+
+	/**
+	 * Size of the buffers used when writing an .rds file.
+	 */
+	private static final int GZIP_BUFFER_SIZE = 65536;
+
+	private final DataOutputStream out;
+
+	private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+	/**
+	 * Create a writer.
+	 * 
+	 * @param out
+	 *            stream to write to
+	 */
+	public RSerialWriter(OutputStream out) {
+		this.out = new DataOutputStream(out);
+	}
+
+	/**
+	 * Encode an R version number as R does.
+	 * 
+	 * @param version
+	 *            major version
+	 * @param patch
+	 *            minor version
+	 * @param subpatch
+	 *            patch level
+	 * @return encoded version
+	 */
+	static int rVersion(int version, int patch, int subpatch) {
+		return version * 65536 + patch * 256 + subpatch;
+	}
+
+	/**
+	 * Serialize vectors as an R dataframe.
+	 * 
+	 * @param vectors
+	 *            columns, all of the same length, eg: an {@link RVectorList}
+	 * @return serialized dataframe, as per {@code serialize(df, NULL)}
+	 * @throws IOException
+	 *             if a vector is of a type that cannot be serialized
+	 */
+	public static byte[] serialize(List<RVector> vectors) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		RSerialWriter writer = new RSerialWriter(bytes);
+		writer.writeHeader();
+		writer.writeDataFrame(vectors);
+		writer.flush();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Write vectors as an R dataframe to a gzipped .rds file, as per
+	 * {@code saveRDS}.
+	 * 
+	 * @param vectors
+	 *            columns, all of the same length, eg: an {@link RVectorList}
+	 * @param file
+	 *            file to write
+	 * @throws IOException
+	 *             if problem writing, or a vector is of a type that cannot be
+	 *             serialized
+	 */
+	public static void writeRDS(List<RVector> vectors, File file)
+			throws IOException {
+		// buffer above the deflater, because DataOutputStream writes
+		// ints a byte at a time
+		OutputStream os =
+				new BufferedOutputStream(new GZIPOutputStream(
+						new FileOutputStream(file), GZIP_BUFFER_SIZE),
+						GZIP_BUFFER_SIZE);
+		try {
+			RSerialWriter writer = new RSerialWriter(os);
+			writer.writeHeader();
+			writer.writeDataFrame(vectors);
+			writer.flush();
+		} finally {
+			os.close();
+		}
+	}
+
+	/**
+	 * Write the stream header. Must be written once before the first item.
+	 * 
+	 * @throws IOException
+	 *             if problem writing
+	 */
+	public void writeHeader() throws IOException {
+		out.writeByte('X');
+		out.writeByte('\n');
+		out.writeInt(VERSION);
+		out.writeInt(WRITER_VERSION);
+		out.writeInt(MIN_READER_VERSION);
+	}
+
+	/**
+	 * Flush the stream.
+	 * 
+	 * @throws IOException
+	 *             if problem writing
+	 */
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	/**
+	 * Write vectors as an R dataframe with compact row names.
+	 * 
+	 * @param vectors
+	 *            columns, all of the same length
+	 * @throws IOException
+	 *             if problem writing, or a vector is of a type that cannot be
+	 *             serialized
+	 */
+	public void writeDataFrame(List<RVector> vectors) throws IOException {
+		int numRows = vectors.isEmpty() ? 0 : vectors.get(0).size();
+		String[] names = new String[vectors.size()];
+
+		out.writeInt(VECSXP | HAS_ATTR_BIT | IS_OBJECT_BIT);
+		out.writeInt(vectors.size());
+		for (int i = 0; i < names.length; i++) {
+			RVector vector = vectors.get(i);
+			if (vector.size() != numRows) {
+				throw new IllegalArgumentException("Vector "
+						+ vector.getName() + " has " + vector.size()
+						+ " elements, expected " + numRows);
+			}
+			names[i] = vector.getName();
+			writeVector(vector);
+		}
+
+		writeTag("names");
+		writeStrings(names);
+		writeTag("class");
+		writeStrings(new String[] { "data.frame" });
+		writeTag("row.names");
+		out.writeInt(INTSXP);
+		if (numRows == 0) {
+			out.writeInt(0);
+		} else {
+			// compact form, ie: c(NA, -n)
+			out.writeInt(2);
+			out.writeInt(REXPInteger.NA);
+			out.writeInt(-numRows);
+		}
+		out.writeInt(NILVALUE_SXP);
+	}
+
+	/**
+	 * Write a vector, with its names if it has any. Double, int, long (as
+	 * bit64 {@code integer64}), logical, String, factor and raw vectors can be
+	 * written.
+	 * 
+	 * @param vector
+	 *            vector
+	 * @throws IOException
+	 *             if problem writing, or the vector is of a type that cannot
+	 *             be serialized
+	 */
+	@SuppressWarnings("unchecked")
+	public void writeVector(RVector vector) throws IOException {
+		List values = vector.getValues();
+		String[] names = vector.getValueNames();
+		int size = values.size();
+
+		String klass = null;
+		if (values instanceof FactorList) {
+			klass = "factor";
+		} else if (values instanceof LongArrayList) {
+			klass = REXPUtil.INTEGER64;
+		}
+
+		int attrFlags = 0;
+		if (names != null || klass != null) {
+			attrFlags |= HAS_ATTR_BIT;
+		}
+		if (klass != null) {
+			attrFlags |= IS_OBJECT_BIT;
+		}
+
+		if (values instanceof DoubleArrayList) {
+			out.writeInt(REALSXP | attrFlags);
+			out.writeInt(size);
+			writeDoubles(((DoubleArrayList) values).elements(), size);
+		} else if (values instanceof IntArrayList) {
+			out.writeInt(INTSXP | attrFlags);
+			out.writeInt(size);
+			writeInts(((IntArrayList) values).elements(), size);
+		} else if (values instanceof FactorList) {
+			out.writeInt(INTSXP | attrFlags);
+			out.writeInt(size);
+			writeInts(((FactorList) values).getCodes().elements(), size);
+		} else if (values instanceof LongArrayList) {
+			// integer64 is the bits of each long, stored as a double
+			out.writeInt(REALSXP | attrFlags);
+			out.writeInt(size);
+			writeLongs(((LongArrayList) values).elements(), size);
+		} else if (values instanceof LogicalList) {
+			out.writeInt(LGLSXP | attrFlags);
+			out.writeInt(size);
+			writeLogicals((LogicalList) values, size);
+		} else if (values instanceof ByteArrayList) {
+			out.writeInt(RAWSXP | attrFlags);
+			out.writeInt(size);
+			out.write(((ByteArrayList) values).elements(), 0, size);
+		} else if (vector.getType() == String.class) {
+			out.writeInt(STRSXP | attrFlags);
+			out.writeInt(size);
+			for (Object value : values) {
+				writeCharsxp(value == null ? null : value.toString());
+			}
+		} else {
+			throw new UnsupportedTypeException("Cannot serialize vector "
+					+ vector.getName() + " of " + values.getClass().getName());
+		}
+
+		if (names != null) {
+			writeTag("names");
+			writeStrings(names);
+		}
+		if (values instanceof FactorList) {
+			writeTag("levels");
+			writeStrings(((FactorList) values).getLevels());
+		}
+		if (klass != null) {
+			writeTag("class");
+			writeStrings(new String[] { klass });
+		}
+		if (attrFlags != 0) {
+			out.writeInt(NILVALUE_SXP);
+		}
+	}
+
+	/**
+	 * Write the start of an attribute pairlist node, ie: the node and its
+	 * tag. The attribute value must be written next.
+	 * 
+	 * @param name
+	 *            attribute name
+	 * @throws IOException
+	 *             if problem writing
+	 */
+	private void writeTag(String name) throws IOException {
+		out.writeInt(LISTSXP | HAS_TAG_BIT);
+		out.writeInt(SYMSXP);
+		writeCharsxp(name);
+	}
+
+	/**
+	 * Write a character vector.
+	 * 
+	 * @param strings
+	 *            strings, {@code null} is {@code NA}
+	 * @throws IOException
+	 *             if problem writing
+	 */
+	private void writeStrings(String[] strings) throws IOException {
+		out.writeInt(STRSXP);
+		out.writeInt(strings.length);
+		for (String string : strings) {
+			writeCharsxp(string);
+		}
+	}
+
+	/**
+	 * Write a single string, encoded as UTF-8.
+	 * 
+	 * @param string
+	 *            string, {@code null} is {@code NA}
+	 * @throws IOException
+	 *             if problem writing
+	 */
+	private void writeCharsxp(String string) throws IOException {
+		if (string == null) {
+			out.writeInt(CHARSXP);
+			out.writeInt(-1);
+			return;
+		}
+
+		byte[] bytes = string.getBytes(UTF8);
+		boolean ascii = true;
+		for (byte b : bytes) {
+			if (b < 0) {
+				ascii = false;
+				break;
+			}
+		}
+
+		out.writeInt(CHARSXP
+				| ((ascii ? ASCII_MASK : UTF8_MASK) << LEVELS_SHIFT));
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private void writeDoubles(double[] values, int length) throws IOException {
+		int perBuffer = BUFFER_SIZE / 8;
+		for (int off = 0; off < length; off += perBuffer) {
+			int n = Math.min(perBuffer, length - off);
+			buffer.clear();
+			buffer.asDoubleBuffer().put(values, off, n);
+			out.write(buffer.array(), 0, n * 8);
+		}
+	}
+
+	private void writeLongs(long[] values, int length) throws IOException {
+		int perBuffer = BUFFER_SIZE / 8;
+		for (int off = 0; off < length; off += perBuffer) {
+			int n = Math.min(perBuffer, length - off);
+			buffer.clear();
+			buffer.asLongBuffer().put(values, off, n);
+			out.write(buffer.array(), 0, n * 8);
+		}
+	}
+
+	private void writeLogicals(LogicalList values, int length)
+			throws IOException {
+		int perBuffer = BUFFER_SIZE / 4;
+		for (int off = 0; off < length; off += perBuffer) {
+			int n = Math.min(perBuffer, length - off);
+			buffer.clear();
+			IntBuffer ints = buffer.asIntBuffer();
+			for (int i = off; i < off + n; i++) {
+				if (values.isNA(i)) {
+					ints.put(REXPInteger.NA);
+				} else {
+					ints.put(values.getBoolean(i) ? 1 : 0);
+				}
+			}
+			out.write(buffer.array(), 0, n * 4);
+		}
+	}
+
+	private void writeInts(int[] values, int length) throws IOException {
+		int perBuffer = BUFFER_SIZE / 4;
+		for (int off = 0; off < length; off += perBuffer) {
+			int n = Math.min(perBuffer, length - off);
+			buffer.clear();
+			buffer.asIntBuffer().put(values, off, n);
+			out.write(buffer.array(), 0, n * 4);
+		}
+	}
+
+}
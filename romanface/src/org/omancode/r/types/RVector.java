@@ -1,9 +1,9 @@
 package org.omancode.r.types;
 
-import it.unimi.dsi.fastutil.booleans.BooleanArrayList;
 import it.unimi.dsi.fastutil.bytes.ByteArrayList;
 import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
 import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
 
 import java.io.IOException;
 import java.util.ArrayList;
@@ -88,7 +88,21 @@ public class RVector implements CBuilder {
 	 */
 	public RVector(String name, Class<?> klass, int initialSize)
 			throws UnsupportedTypeException {
-		this(name, klass, createList(klass, initialSize), null);
+		this(name, valueType(klass), createList(klass, initialSize), null);
+	}
+
+	/**
+	 * Create a new {@link RVector} from a list of values.
+	 * 
+	 * @param name
+	 *            vector name.
+	 * @param klass
+	 *            type of the values.
+	 * @param values
+	 *            list of values, one of the list types this class creates.
+	 */
+	RVector(String name, Class<?> klass, List values) {
+		this(name, klass, values, null);
 	}
 
 	/**
@@ -137,7 +151,7 @@ public class RVector implements CBuilder {
 	public static RVector create(String name, Class<?> klass, int initialSize) {
 		try {
 			List values = createList(klass, initialSize);
-			return new RVector(name, klass, values, null);
+			return new RVector(name, valueType(klass), values, null);
 		} catch (UnsupportedTypeException e) {
 			return null;
 		}
@@ -145,6 +159,8 @@ public class RVector implements CBuilder {
 
 	/**
 	 * Create a new {@link RVector} from the values in a {@link REXPVector}.
+	 * An {@link REXPFactor} is held as a {@link FactorList} of codes and
+	 * levels.
 	 * 
 	 * @param name
 	 *            vector name
@@ -165,12 +181,23 @@ public class RVector implements CBuilder {
 				.getNamesAttribute(rexp));
 	}
 
+	/**
+	 * Return the type of the values held for a given value class. Enums are
+	 * held as factors, so their values are Strings.
+	 * 
+	 * @param klass
+	 *            value class
+	 * @return value type
+	 */
+	private static Class<?> valueType(Class<?> klass) {
+		return klass.isEnum() ? String.class : klass;
+	}
+
 	/**
 	 * Return java type for given R expression object.
 	 * 
-	 * NB: If {@code rexp} is a {@link REXPLogical} then Byte.class is returned.
-	 * This is to accommodate NA values which are represented as
-	 * {@link REXPLogical#NA}.
+	 * NB: If {@code rexp} is a {@link REXPLogical} then Boolean.class is
+	 * returned, with NA values represented as {@code null}.
 	 * 
 	 * @param rexp
 	 *            R expression object
@@ -181,16 +208,16 @@ public class RVector implements CBuilder {
 	 */
 	private static Class<?> calcJavaType(REXPVector rexp)
 			throws UnsupportedTypeException {
-		if (rexp instanceof REXPDouble) {
+		if (REXPUtil.isInteger64(rexp)) {
+			return Long.class;
+		} else if (rexp instanceof REXPDouble) {
 			return Double.class;
 		} else if (rexp instanceof REXPFactor) {
 			return String.class;
 		} else if (rexp instanceof REXPInteger) {
 			return Integer.class;
 		} else if (rexp instanceof REXPLogical) {
-			// returned as Byte because of NAs, which
-			// are represented as REXPLogical.NA (ie: -128)
-			return Byte.class;
+			return Boolean.class;
 		} else if (rexp instanceof REXPString) {
 			return String.class;
 		} else if (rexp instanceof REXPRaw) {
@@ -204,9 +231,8 @@ public class RVector implements CBuilder {
 	 * Creates a primitive array list of the appropriate type for the given
 	 * rexp.
 	 * 
-	 * NB: If {@code rexp} is a {@link REXPLogical} then a Byte list is
-	 * returned. This is to accommodate NA values which are represented as
-	 * {@link REXPLogical#NA}.
+	 * NB: If {@code rexp} is a {@link REXPLogical} then a {@link LogicalList}
+	 * is returned, which holds NA values separately from the values.
 	 * 
 	 * @param rexp
 	 *            an {@link REXPVector}.
@@ -219,15 +245,21 @@ public class RVector implements CBuilder {
 	 */
 	private static List createList(REXPVector rexp)
 			throws UnsupportedTypeException, REXPMismatchException {
-		if (rexp instanceof REXPDouble) {
-			return new DoubleArrayList(rexp.asDoubles());
+		// wrap rather than copy the arrays, so the values are shared with
+		// rexp rather than duplicated
+		if (REXPUtil.isInteger64(rexp)) {
+			return LongArrayList.wrap(REXPUtil
+					.fromInteger64((REXPDouble) rexp));
+		} else if (rexp instanceof REXPDouble) {
+			return DoubleArrayList.wrap(rexp.asDoubles());
 		} else if (rexp instanceof REXPFactor) {
-			return Arrays.asList(rexp.asStrings());
+			return FactorList.wrap(rexp.asIntegers(), ((REXPFactor) rexp)
+					.asFactor().levels());
 		} else if (rexp instanceof REXPInteger) {
-			return new IntArrayList(rexp.asIntegers());
+			return IntArrayList.wrap(rexp.asIntegers());
 		} else if (rexp instanceof REXPLogical) {
-			// returned as byte[] of 0,1, or REXPLogical.NA (-128)
-			return new ByteArrayList(rexp.asBytes());
+			// packed from byte[] of 0,1, or REXPLogical.NA (-128)
+			return new LogicalList(rexp.asBytes());
 		} else if (rexp instanceof REXPString) {
 			return Arrays.asList(rexp.asStrings());
 		} else if (rexp instanceof REXPRaw) {
@@ -262,23 +294,23 @@ public class RVector implements CBuilder {
 		} else if (klass == int.class || klass == Integer.class) {
 			values = new IntArrayList(initialSize);
 		} else if (klass == boolean.class || klass == Boolean.class) {
-			values = new BooleanArrayList(initialSize);
+			values = new LogicalList(initialSize);
 		} else if (klass == String.class) {
 			values = new ArrayList<String>(initialSize);
 		} else if (klass == float.class || klass == Float.class) {
 			// no R type for float, use double instead
 			values = new DoubleArrayList(initialSize);
 		} else if (klass == long.class || klass == Long.class) {
-			// no R type for long, use int instead
 			// R doesn't have anything that can represent long natively,
-			// so you have to convert it to either int (if 32-bit is
-			// enough), double (giving you about 52-bits lossless
-			// storage) or raw vector with 8-bytes for each long.
-			// we'll use int
-			values = new IntArrayList(initialSize);
+			// so longs are exported as bit64 integer64 (the 8 bytes of
+			// each long in a double), or as double on request.
+			values = new LongArrayList(initialSize);
 		} else if (klass == char.class || klass == Character.class) {
 			// no R type for char, use String instead
 			values = new ArrayList<String>(initialSize);
+		} else if (klass.isEnum()) {
+			// enums are held as factors, with levels in declaration order
+			values = FactorList.forEnum(klass, initialSize);
 		} else if (klass.isArray()) {
 			values = new RList(initialSize, false);
 		} else {
@@ -292,26 +324,389 @@ public class RVector implements CBuilder {
 
 	/**
 	 * Add a single value to this vector. Automatically unboxes objects of
-	 * primitive type and stores them in a primitive list.
+	 * primitive type and stores them in a primitive list. A {@code null} added
+	 * to a double, int, long, logical or factor vector is stored as
+	 * {@code NA}.
 	 * 
 	 * @param value
 	 *            single value to add.
 	 */
-	@SuppressWarnings("unchecked")
 	public void addValue(Object value) {
-		// if its a Character, we are storing it
-		// in a ArrayList<String> so we need to
-		// convert it to a String first.
-		if (value instanceof Character) {
-			values.add(value.toString());
-		} else if (klass.isArray()) {
-			// this must be an array object passed in, so wrap it in a
-			// REXPVector
-			values.add(REXPUtil.toVector(value));
+		putValue(-1, value);
+	}
+
+	/**
+	 * Add or replace a single value, converting it as per
+	 * {@link #addValue(Object)}.
+	 * 
+	 * @param index
+	 *            index of the element to replace, or {@code -1} to add
+	 * @param value
+	 *            single value
+	 */
+	@SuppressWarnings("unchecked")
+	private void putValue(int index, Object value) {
+		boolean add = index < 0;
+
+		// unbox numbers ourselves, so that any Number can be stored
+		// (eg: a Float in a double vector) and nulls become NA.
+		if (values instanceof DoubleArrayList) {
+			double d =
+					value == null ? REXPDouble.NA : ((Number) value)
+							.doubleValue();
+			if (add) {
+				addDouble(d);
+			} else {
+				setDouble(index, d);
+			}
+		} else if (values instanceof IntArrayList) {
+			int i =
+					value == null ? REXPInteger.NA : ((Number) value)
+							.intValue();
+			if (add) {
+				addInt(i);
+			} else {
+				setInt(index, i);
+			}
+		} else if (values instanceof LongArrayList) {
+			long l =
+					value == null ? REXPUtil.NA_INTEGER64 : ((Number) value)
+							.longValue();
+			if (add) {
+				addLong(l);
+			} else {
+				setLong(index, l);
+			}
+		} else if (values instanceof FactorList) {
+			if (add) {
+				((FactorList) values).addValue(value);
+			} else {
+				((FactorList) values).setValue(index, value);
+			}
 		} else {
-			values.add(value);
+			Object element = value;
+			if (value instanceof Character) {
+				// if its a Character, we are storing it
+				// in a ArrayList<String> so we need to
+				// convert it to a String first.
+				element = value.toString();
+			} else if (klass.isArray()) {
+				// this must be an array object passed in, so wrap it in a
+				// REXPVector
+				element = REXPUtil.toVector(value);
+			}
+
+			if (add) {
+				values.add(element);
+			} else {
+				values.set(index, element);
+			}
+		}
+	}
+
+	/**
+	 * Set the number of elements in this vector. Elements added are zero,
+	 * {@code false} or {@code null}, according to the type of the vector, and
+	 * can then be replaced via the set methods, eg:
+	 * {@link #setDouble(int, double)}. This allows separate threads to fill
+	 * separate ranges of the vector.
+	 * 
+	 * @param size
+	 *            new size
+	 */
+	@SuppressWarnings("unchecked")
+	public void setSize(int size) {
+		if (values instanceof DoubleArrayList) {
+			((DoubleArrayList) values).size(size);
+		} else if (values instanceof IntArrayList) {
+			((IntArrayList) values).size(size);
+		} else if (values instanceof LongArrayList) {
+			((LongArrayList) values).size(size);
+		} else if (values instanceof LogicalList) {
+			((LogicalList) values).setSize(size);
+		} else if (values instanceof ByteArrayList) {
+			((ByteArrayList) values).size(size);
+		} else if (values instanceof FactorList) {
+			((FactorList) values).setSize(size);
+		} else if (values instanceof RList) {
+			((RList) values).setSize(size);
+		} else {
+			while (values.size() > size) {
+				values.remove(values.size() - 1);
+			}
+			while (values.size() < size) {
+				values.add(null);
+			}
+		}
+	}
+
+	/**
+	 * Replace a single value. Values are converted as per
+	 * {@link #addValue(Object)}, so eg: a {@code null} is stored as
+	 * {@code NA}.
+	 * 
+	 * @param index
+	 *            index of the element to replace
+	 * @param value
+	 *            single value to set.
+	 */
+	public void setValue(int index, Object value) {
+		if (index < 0) {
+			throw new IndexOutOfBoundsException("Index: " + index);
+		}
+		putValue(index, value);
+	}
+
+	/**
+	 * Replace a single double without boxing.
+	 * 
+	 * @param index
+	 *            index of the element to replace
+	 * @param value
+	 *            value
+	 * @throws ClassCastException
+	 *             if this is not a double vector
+	 */
+	public void setDouble(int index, double value) {
+		((DoubleArrayList) values).set(index, value);
+	}
+
+	/**
+	 * Replace a single int without boxing.
+	 * 
+	 * @param index
+	 *            index of the element to replace
+	 * @param value
+	 *            value
+	 * @throws ClassCastException
+	 *             if this is not an int vector
+	 */
+	public void setInt(int index, int value) {
+		((IntArrayList) values).set(index, value);
+	}
+
+	/**
+	 * Replace a single long without boxing.
+	 * 
+	 * @param index
+	 *            index of the element to replace
+	 * @param value
+	 *            value
+	 * @throws ClassCastException
+	 *             if this is not a long vector
+	 */
+	public void setLong(int index, long value) {
+		((LongArrayList) values).set(index, value);
+	}
+
+	/**
+	 * Replace a single boolean without boxing.
+	 * 
+	 * @param index
+	 *            index of the element to replace
+	 * @param value
+	 *            value
+	 * @throws ClassCastException
+	 *             if this is not a boolean vector
+	 */
+	public void setBoolean(int index, boolean value) {
+		((LogicalList) values).setBoolean(index, value);
+	}
+
+	/**
+	 * Add a single double to this vector without boxing.
+	 * 
+	 * @param value
+	 *            value to add
+	 * @throws ClassCastException
+	 *             if this is not a double vector
+	 */
+	public void addDouble(double value) {
+		((DoubleArrayList) values).add(value);
+	}
+
+	/**
+	 * Add a single int to this vector without boxing.
+	 * 
+	 * @param value
+	 *            value to add
+	 * @throws ClassCastException
+	 *             if this is not an int vector
+	 */
+	public void addInt(int value) {
+		((IntArrayList) values).add(value);
+	}
+
+	/**
+	 * Add a single long to this vector without boxing.
+	 * 
+	 * @param value
+	 *            value to add
+	 * @throws ClassCastException
+	 *             if this is not a long vector
+	 */
+	public void addLong(long value) {
+		((LongArrayList) values).add(value);
+	}
+
+	/**
+	 * Add a single boolean to this vector without boxing.
+	 * 
+	 * @param value
+	 *            value to add
+	 * @throws ClassCastException
+	 *             if this is not a boolean vector
+	 */
+	public void addBoolean(boolean value) {
+		((LogicalList) values).addBoolean(value);
+	}
+
+	/**
+	 * Add all of {@code doubles} to this vector without boxing.
+	 * 
+	 * @param doubles
+	 *            values to add
+	 * @throws IllegalStateException
+	 *             if this is not a double vector
+	 */
+	public void addDoubles(double[] doubles) {
+		addDoubles(doubles, 0, doubles.length);
+	}
+
+	/**
+	 * Add a range of {@code doubles} to this vector without boxing.
+	 * 
+	 * @param doubles
+	 *            values to add
+	 * @param offset
+	 *            index in {@code doubles} of the first value to add
+	 * @param length
+	 *            number of values to add
+	 * @throws IllegalStateException
+	 *             if this is not a double vector
+	 */
+	public void addDoubles(double[] doubles, int offset, int length) {
+		if (!(values instanceof DoubleArrayList)) {
+			throw new IllegalStateException("Cannot add doubles to vector of "
+					+ klass.getCanonicalName());
+		}
+		DoubleArrayList list = (DoubleArrayList) values;
+		list.addElements(list.size(), doubles, offset, length);
+	}
+
+	/**
+	 * Add all of {@code ints} to this vector without boxing.
+	 * 
+	 * @param ints
+	 *            values to add
+	 * @throws IllegalStateException
+	 *             if this is not an int or double vector
+	 */
+	public void addInts(int[] ints) {
+		addInts(ints, 0, ints.length);
+	}
+
+	/**
+	 * Add a range of {@code ints} to this vector without boxing. If this is a
+	 * double vector the values are widened, with {@link REXPInteger#NA} as
+	 * {@link REXPDouble#NA}.
+	 * 
+	 * @param ints
+	 *            values to add
+	 * @param offset
+	 *            index in {@code ints} of the first value to add
+	 * @param length
+	 *            number of values to add
+	 * @throws IllegalStateException
+	 *             if this is not an int or double vector
+	 */
+	public void addInts(int[] ints, int offset, int length) {
+		if (values instanceof IntArrayList) {
+			IntArrayList list = (IntArrayList) values;
+			list.addElements(list.size(), ints, offset, length);
+		} else if (values instanceof DoubleArrayList) {
+			DoubleArrayList list = (DoubleArrayList) values;
+			list.ensureCapacity(list.size() + length);
+			for (int i = offset; i < offset + length; i++) {
+				list.add(REXPInteger.isNA(ints[i]) ? REXPDouble.NA : ints[i]);
+			}
+		} else {
+			throw new IllegalStateException("Cannot add ints to vector of "
+					+ klass.getCanonicalName());
+		}
+	}
+
+	/**
+	 * Add all of {@code floats} to this vector, widened to doubles, without
+	 * boxing.
+	 * 
+	 * @param floats
+	 *            values to add
+	 * @throws IllegalStateException
+	 *             if this is not a double vector
+	 */
+	public void addFloats(float[] floats) {
+		addFloats(floats, 0, floats.length);
+	}
+
+	/**
+	 * Add a range of {@code floats} to this vector, widened to doubles,
+	 * without boxing.
+	 * 
+	 * @param floats
+	 *            values to add
+	 * @param offset
+	 *            index in {@code floats} of the first value to add
+	 * @param length
+	 *            number of values to add
+	 * @throws IllegalStateException
+	 *             if this is not a double vector
+	 */
+	public void addFloats(float[] floats, int offset, int length) {
+		if (!(values instanceof DoubleArrayList)) {
+			throw new IllegalStateException("Cannot add floats to vector of "
+					+ klass.getCanonicalName());
+		}
+		DoubleArrayList list = (DoubleArrayList) values;
+		int size = list.size();
+		list.size(size + length);
+		double[] elements = list.elements();
+		for (int i = 0; i < length; i++) {
+			elements[size + i] = floats[offset + i];
 		}
+	}
+
+	/**
+	 * Add all of {@code longs} to this vector without boxing.
+	 * 
+	 * @param longs
+	 *            values to add
+	 * @throws IllegalStateException
+	 *             if this is not a long vector
+	 */
+	public void addLongs(long[] longs) {
+		addLongs(longs, 0, longs.length);
+	}
 
+	/**
+	 * Add a range of {@code longs} to this vector without boxing.
+	 * 
+	 * @param longs
+	 *            values to add
+	 * @param offset
+	 *            index in {@code longs} of the first value to add
+	 * @param length
+	 *            number of values to add
+	 * @throws IllegalStateException
+	 *             if this is not a long vector
+	 */
+	public void addLongs(long[] longs, int offset, int length) {
+		if (!(values instanceof LongArrayList)) {
+			throw new IllegalStateException("Cannot add longs to vector of "
+					+ klass.getCanonicalName());
+		}
+		LongArrayList list = (LongArrayList) values;
+		list.addElements(list.size(), longs, offset, length);
 	}
 
 	/**
@@ -346,6 +741,255 @@ public class RVector implements CBuilder {
 		return values.get(index);
 	}
 
+	/**
+	 * Returns the element at the specified index as a double, without boxing
+	 * if the vector is numeric. Integer and logical {@code NA}s are returned as
+	 * {@link REXPDouble#NA}.
+	 * 
+	 * @param index
+	 *            index
+	 * @return element at this index
+	 * @throws ClassCastException
+	 *             if the vector is not numeric
+	 */
+	public double getDouble(int index) {
+		if (values instanceof DoubleArrayList) {
+			return ((DoubleArrayList) values).getDouble(index);
+		} else if (values instanceof IntArrayList) {
+			int value = ((IntArrayList) values).getInt(index);
+			return REXPInteger.isNA(value) ? REXPDouble.NA : value;
+		} else if (values instanceof LongArrayList) {
+			long value = ((LongArrayList) values).getLong(index);
+			return value == REXPUtil.NA_INTEGER64 ? REXPDouble.NA : value;
+		} else if (values instanceof LogicalList) {
+			LogicalList list = (LogicalList) values;
+			if (list.isNA(index)) {
+				return REXPDouble.NA;
+			}
+			return list.getBoolean(index) ? 1 : 0;
+		}
+		return ((Number) values.get(index)).doubleValue();
+	}
+
+	/**
+	 * Returns the element at the specified index as an int, without boxing if
+	 * the vector is integer or logical. {@code NA}s, and double {@code NaN}s,
+	 * are returned as {@link REXPInteger#NA}. Doubles and longs are truncated.
+	 * Factors are returned as their 1-based code.
+	 * 
+	 * @param index
+	 *            index
+	 * @return element at this index
+	 * @throws ClassCastException
+	 *             if the vector is not numeric
+	 */
+	public int getInt(int index) {
+		if (values instanceof IntArrayList) {
+			return ((IntArrayList) values).getInt(index);
+		} else if (values instanceof LogicalList) {
+			LogicalList list = (LogicalList) values;
+			if (list.isNA(index)) {
+				return REXPInteger.NA;
+			}
+			return list.getBoolean(index) ? 1 : 0;
+		} else if (values instanceof DoubleArrayList) {
+			double value = ((DoubleArrayList) values).getDouble(index);
+			// includes NA, which is a NaN
+			return Double.isNaN(value) ? REXPInteger.NA : (int) value;
+		} else if (values instanceof LongArrayList) {
+			long value = ((LongArrayList) values).getLong(index);
+			return value == REXPUtil.NA_INTEGER64 ? REXPInteger.NA
+					: (int) value;
+		} else if (values instanceof FactorList) {
+			return ((FactorList) values).getCode(index);
+		}
+		return ((Number) values.get(index)).intValue();
+	}
+
+	/**
+	 * Returns the element at the specified index as a long, without boxing if
+	 * the vector is long. {@code NA}, and {@code NaN}, are
+	 * {@link REXPUtil#NA_INTEGER64}. Other numeric elements are converted as
+	 * per {@link #getInt(int)}.
+	 * 
+	 * @param index
+	 *            index
+	 * @return element at this index
+	 * @throws ClassCastException
+	 *             if the vector is not numeric
+	 */
+	public long getLong(int index) {
+		if (values instanceof LongArrayList) {
+			return ((LongArrayList) values).getLong(index);
+		} else if (values instanceof DoubleArrayList) {
+			double value = ((DoubleArrayList) values).getDouble(index);
+			// includes NA, which is a NaN
+			return Double.isNaN(value) ? REXPUtil.NA_INTEGER64
+					: (long) value;
+		}
+		int value = getInt(index);
+		return REXPInteger.isNA(value) ? REXPUtil.NA_INTEGER64 : value;
+	}
+
+	/**
+	 * Returns the element at the specified index as a boolean, without boxing.
+	 * A logical {@code NA} is returned as {@code false}, use
+	 * {@link #isNA(int)} to distinguish it.
+	 * 
+	 * @param index
+	 *            index
+	 * @return element at this index
+	 * @throws ClassCastException
+	 *             if the vector is not logical or boolean
+	 */
+	public boolean getBoolean(int index) {
+		if (values instanceof LogicalList) {
+			return ((LogicalList) values).getBoolean(index);
+		}
+		return (Boolean) values.get(index);
+	}
+
+	/**
+	 * Returns the element at the specified index as a String. Elements of
+	 * string and factor vectors are returned as is, with {@code NA} as
+	 * {@code null}. Other elements are converted with
+	 * {@link String#valueOf(Object)}.
+	 * 
+	 * @param index
+	 *            index
+	 * @return element at this index
+	 */
+	public String getString(int index) {
+		Object value = values.get(index);
+		if (value instanceof String || value == null) {
+			return (String) value;
+		}
+		return String.valueOf(value);
+	}
+
+	/**
+	 * Is the element at the specified index {@code NA}?
+	 * 
+	 * @param index
+	 *            index
+	 * @return {@code true} if {@code NA}
+	 */
+	public boolean isNA(int index) {
+		if (values instanceof DoubleArrayList) {
+			return REXPDouble.isNA(((DoubleArrayList) values).getDouble(index));
+		} else if (values instanceof IntArrayList) {
+			return REXPInteger.isNA(((IntArrayList) values).getInt(index));
+		} else if (values instanceof LongArrayList) {
+			return ((LongArrayList) values).getLong(index)
+					== REXPUtil.NA_INTEGER64;
+		} else if (values instanceof LogicalList) {
+			return ((LogicalList) values).isNA(index);
+		}
+		return values.get(index) == null;
+	}
+
+	/**
+	 * Copy a range of elements, as doubles, into {@code dest}. Avoids boxing
+	 * if the vector is numeric. Conversions are as per {@link #getDouble(int)}.
+	 * 
+	 * @param from
+	 *            index of first element to copy
+	 * @param dest
+	 *            destination array
+	 * @param offset
+	 *            position in {@code dest} of the first element
+	 * @param length
+	 *            number of elements to copy
+	 */
+	public void getDoubles(int from, double[] dest, int offset, int length) {
+		if (values instanceof DoubleArrayList) {
+			((DoubleArrayList) values).getElements(from, dest, offset, length);
+		} else {
+			for (int i = 0; i < length; i++) {
+				dest[offset + i] = getDouble(from + i);
+			}
+		}
+	}
+
+	/**
+	 * Copy a range of elements, as ints, into {@code dest}. Avoids boxing if
+	 * the vector is integer or logical. Conversions are as per
+	 * {@link #getInt(int)}.
+	 * 
+	 * @param from
+	 *            index of first element to copy
+	 * @param dest
+	 *            destination array
+	 * @param offset
+	 *            position in {@code dest} of the first element
+	 * @param length
+	 *            number of elements to copy
+	 */
+	public void getInts(int from, int[] dest, int offset, int length) {
+		if (values instanceof IntArrayList) {
+			((IntArrayList) values).getElements(from, dest, offset, length);
+		} else {
+			for (int i = 0; i < length; i++) {
+				dest[offset + i] = getInt(from + i);
+			}
+		}
+	}
+
+	/**
+	 * Copy a range of elements, as Strings, into {@code dest}. Conversions are
+	 * as per {@link #getString(int)}.
+	 * 
+	 * @param from
+	 *            index of first element to copy
+	 * @param dest
+	 *            destination array
+	 * @param offset
+	 *            position in {@code dest} of the first element
+	 * @param length
+	 *            number of elements to copy
+	 */
+	public void getStrings(int from, String[] dest, int offset, int length) {
+		for (int i = 0; i < length; i++) {
+			dest[offset + i] = getString(from + i);
+		}
+	}
+
+	/**
+	 * Get all elements as a double array. Conversions are as per
+	 * {@link #getDouble(int)}.
+	 * 
+	 * @return a new array of {@link #size()} elements
+	 */
+	public double[] toDoubleArray() {
+		double[] dest = new double[size()];
+		getDoubles(0, dest, 0, dest.length);
+		return dest;
+	}
+
+	/**
+	 * Get all elements as an int array. Conversions are as per
+	 * {@link #getInt(int)}.
+	 * 
+	 * @return a new array of {@link #size()} elements
+	 */
+	public int[] toIntArray() {
+		int[] dest = new int[size()];
+		getInts(0, dest, 0, dest.length);
+		return dest;
+	}
+
+	/**
+	 * Get all elements as a String array. Conversions are as per
+	 * {@link #getString(int)}.
+	 * 
+	 * @return a new array of {@link #size()} elements
+	 */
+	public String[] toStringArray() {
+		String[] dest = new String[size()];
+		getStrings(0, dest, 0, dest.length);
+		return dest;
+	}
+
 	/**
 	 * Get the list containing all the values of this vector.
 	 * 
@@ -356,6 +1000,15 @@ public class RVector implements CBuilder {
 		return values;
 	}
 
+	/**
+	 * Get the names of each of the values.
+	 * 
+	 * @return names, or {@code null} if unnamed.
+	 */
+	String[] getValueNames() {
+		return valueNames;
+	}
+
 	/**
 	 * Returns the number of elements in this vector.
 	 * 
@@ -384,7 +1037,8 @@ public class RVector implements CBuilder {
 	}
 
 	/**
-	 * Convert this vector to an REXPVector.
+	 * Convert this vector to an REXPVector. Exactly {@link #size()} elements
+	 * are exported. Primitive elements are copied at most once.
 	 * 
 	 * @return an REXPVector.
 	 * @throws UnsupportedTypeException
@@ -393,13 +1047,25 @@ public class RVector implements CBuilder {
 	public REXPVector getREXPVector() throws UnsupportedTypeException {
 
 		// get primitives out of the list (using the primitive method)
-		// and create an REXP from them.
-		if (values instanceof DoubleArrayList) {
-			return new REXPDouble(((DoubleArrayList) values).elements());
+		// and create an REXP from them. The backing array is only used
+		// directly if it is exactly full, otherwise its unused capacity
+		// would be sent to R too, so the elements are copied out.
+		if (values instanceof FactorList) {
+			return ((FactorList) values).toREXPFactor();
+		} else if (values instanceof DoubleArrayList) {
+			DoubleArrayList list = (DoubleArrayList) values;
+			return new REXPDouble(list.elements().length == list.size() ? list
+					.elements() : list.toDoubleArray());
 		} else if (values instanceof IntArrayList) {
-			return new REXPInteger(((IntArrayList) values).elements());
-		} else if (values instanceof BooleanArrayList) {
-			return new REXPLogical(((BooleanArrayList) values).elements());
+			IntArrayList list = (IntArrayList) values;
+			return new REXPInteger(list.elements().length == list.size() ? list
+					.elements() : list.toIntArray());
+		} else if (values instanceof LongArrayList) {
+			LongArrayList list = (LongArrayList) values;
+			return REXPUtil.toInteger64(list.elements().length == list.size()
+					? list.elements() : list.toLongArray());
+		} else if (values instanceof LogicalList) {
+			return ((LogicalList) values).toREXPLogical();
 		} else if (values instanceof ArrayList<?>) {
 			return new REXPString(
 					((ArrayList<?>) values).toArray(new String[values.size()]));
@@ -412,6 +1078,45 @@ public class RVector implements CBuilder {
 
 	}
 
+	/**
+	 * Dictionary encode this vector as a factor, if it is a String vector
+	 * with no more than {@code maxLevels} distinct values. A factor is
+	 * transferred to R as an int code per element plus each distinct String
+	 * once, rather than a String per element.
+	 * 
+	 * @param maxLevels
+	 *            maximum number of levels
+	 * @return a new factor vector, or this vector if it isn't a String vector
+	 *         or has more than {@code maxLevels} distinct values
+	 */
+	public RVector factorise(int maxLevels) {
+		if (!(values instanceof ArrayList<?>)) {
+			return this;
+		}
+
+		FactorList factor = FactorList.encode(values, maxLevels);
+		return factor == null ? this : new RVector(name, String.class, factor,
+				valueNames);
+	}
+
+	/**
+	 * Convert this vector to a double vector, if it is a long vector. Doubles
+	 * hold integers of up to 53 bits exactly, and do not need the bit64
+	 * package in R. {@code NA} becomes {@link REXPDouble#NA}.
+	 * 
+	 * @return a new double vector, or this vector if it isn't a long vector
+	 */
+	public RVector longsAsDoubles() {
+		if (!(values instanceof LongArrayList)) {
+			return this;
+		}
+
+		double[] doubles = new double[values.size()];
+		getDoubles(0, doubles, 0, doubles.length);
+		return new RVector(name, Double.class, DoubleArrayList.wrap(doubles),
+				valueNames);
+	}
+
 	@Override
 	public final String toString() {
 		if (name == null) {
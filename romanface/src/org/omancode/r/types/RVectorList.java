@@ -6,6 +6,7 @@ import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.concurrent.ExecutorService;
 
 import net.casper.data.model.CDataCacheContainer;
 import net.casper.data.model.CDataGridException;
@@ -16,8 +17,6 @@ import net.casper.data.model.CMarkedUpRowBean;
 import net.casper.data.model.CRowMetaData;
 
 import org.omancode.r.RFaceException;
-import org.omancode.util.beans.BeanPropertyInspector;
-import org.omancode.util.beans.BeanUtil;
 import org.rosuda.REngine.REXP;
 import org.rosuda.REngine.REXPMismatchException;
 import org.rosuda.REngine.REXPVector;
@@ -45,8 +44,13 @@ public class RVectorList implements List<RVector> {
 	 * only created for primitive properties and arrays of primitive properties;
 	 * object properties are ignored without warning.
 	 * 
-	 * NB: doesn't automatically create factors for vectors like read.table
-	 * does.
+	 * NB: doesn't automatically create factors for String vectors like
+	 * read.table does, use {@link #factorise(int)}. Enum properties are
+	 * created as factors.
+	 * 
+	 * The properties of each class converted, and their getter methods, are
+	 * looked up once and cached for subsequent conversions. Primitive
+	 * properties are written straight into primitive vectors.
 	 * 
 	 * @param col
 	 *            the Java collection to convert.
@@ -60,28 +64,69 @@ public class RVectorList implements List<RVector> {
 	 */
 	public RVectorList(Collection<?> col, Class<?> stopClass)
 			throws IntrospectionException {
-		this(col, new BeanPropertyInspector(col.iterator().next(), stopClass));
+		this(col, BeanAccessorPlan.forBean(col.iterator().next(), stopClass));
 	}
 
-	private RVectorList(Collection<?> col, BeanPropertyInspector props)
-			throws IntrospectionException {
+	private RVectorList(Collection<?> col, BeanAccessorPlan plan) {
 
 		// create a empty list of RVectors from the properties
-		this(props.getNames(), props.getTypes(), col.size());
+		this(plan.getNames(), plan.getTypes(), col.size());
 
 		// fill the RVectors' values row by row
 		// from the bean's property values
-		for (Object element : col) {
-			for (RVector vector : vectors) {
-				String propName = vector.getName();
-				Object prop = BeanUtil.getProperty(element, propName);
-				vector.addValue(prop);
-			}
+		plan.fill(col, vectors);
+	}
+
+	/**
+	 * Create an list of {@link RVector}s from the given {@link Collection},
+	 * as per {@link #RVectorList(Collection, Class)}, but fill the vectors
+	 * concurrently. The collection is split into one range per available
+	 * processor and each range is filled by a separate task on
+	 * {@code executor}. The resulting vectors are the same as those created by
+	 * {@link #RVectorList(Collection, Class)}.
+	 * 
+	 * Worthwhile for large collections, and beans with many properties.
+	 * 
+	 * @param col
+	 *            the Java collection to convert.
+	 * @param stopClass
+	 *            Columns are created for all getter methods that are defined by
+	 *            {@code stopClass}'s subclasses. {@code stopClass}'s getter
+	 *            methods and superclass getter methods are not converted to
+	 *            columns in the dataframe.
+	 * @param executor
+	 *            executor to fill the vectors on
+	 * @throws IntrospectionException
+	 *             if problem reading properties of the collection
+	 * @throws RFaceException
+	 *             if interrupted while filling
+	 */
+	public RVectorList(Collection<?> col, Class<?> stopClass,
+			ExecutorService executor) throws IntrospectionException,
+			RFaceException {
+		this(col, BeanAccessorPlan.forBean(col.iterator().next(), stopClass),
+				executor);
+	}
+
+	private RVectorList(Collection<?> col, BeanAccessorPlan plan,
+			ExecutorService executor) throws RFaceException {
+
+		// create a empty list of RVectors from the properties
+		this(plan.getNames(), plan.getTypes(), col.size());
+
+		try {
+			plan.fill(col, vectors, executor, Runtime.getRuntime()
+					.availableProcessors());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RFaceException("Interrupted filling vectors", e);
 		}
 	}
 
 	/**
 	 * Create an list of {@link RVector}s from a {@link CDataCacheContainer}.
+	 * Column indices are resolved once, and numeric values are stored
+	 * straight into primitive vectors.
 	 * 
 	 * NB: doesn't automatically create factors like read.table does.
 	 * 
@@ -97,15 +142,21 @@ public class RVectorList implements List<RVector> {
 		this(container.getMetaDefinition().getColumnNames(), container
 				.getMetaDefinition().getColumnTypes(), container.size());
 
+		// look up the column index of each vector once
+		CRowMetaData meta = container.getMetaDefinition();
+		RVector[] columns = vectors.toArray(new RVector[vectors.size()]);
+		int[] indices = new int[columns.length];
+		for (int i = 0; i < columns.length; i++) {
+			indices[i] = meta.getColumnIndex(columns[i].getName());
+		}
+
 		// fill the RVectors' values row by row
 		// from the columns
 		try {
 			CDataRowSet cdrs = container.getAll();
 			while (cdrs.next()) {
-				for (RVector vector : vectors) {
-					String propName = vector.getName();
-					Object prop = cdrs.getObject(propName);
-					vector.addValue(prop);
+				for (int i = 0; i < columns.length; i++) {
+					columns[i].addValue(cdrs.getObject(indices[i]));
 				}
 			}
 		} catch (CDataGridException e) {
@@ -282,6 +333,35 @@ public class RVectorList implements List<RVector> {
 		return this;
 	}
 
+	/**
+	 * Dictionary encode each String vector that has no more than
+	 * {@code maxLevels} distinct values as a factor. See
+	 * {@link RVector#factorise(int)}.
+	 * 
+	 * @param maxLevels
+	 *            maximum number of levels
+	 * @return this {@link RVectorList}
+	 */
+	public RVectorList factorise(int maxLevels) {
+		for (ListIterator<RVector> it = vectors.listIterator(); it.hasNext();) {
+			it.set(it.next().factorise(maxLevels));
+		}
+		return this;
+	}
+
+	/**
+	 * Convert each long vector to a double vector. See
+	 * {@link RVector#longsAsDoubles()}.
+	 * 
+	 * @return this {@link RVectorList}
+	 */
+	public RVectorList longsAsDoubles() {
+		for (ListIterator<RVector> it = vectors.listIterator(); it.hasNext();) {
+			it.set(it.next().longsAsDoubles());
+		}
+		return this;
+	}
+
 	/**
 	 * Return a new {@link RList} from this list of {@link RVector}s.
 	 * 
@@ -0,0 +1,495 @@
+package org.omancode.r.types;
+
+import it.unimi.dsi.fastutil.bytes.ByteArrayList;
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.rosuda.REngine.REXPInteger;
+
+/**
+ * Reads and writes columns in a binary transfer file, for moving large
+ * dataframes between Java and R without going through REXPs and JNI.
+ * Columns are written straight from, and read straight into, the primitive
+ * arrays backing each {@link RVector} via memory-mapped buffers, and are read
+ * and written in R by {@code readBin} and {@code writeBin} (see
+ * {@code .readTransfer} and {@code .writeTransfer} in {@code RFace.r}). Each
+ * column is therefore copied once on each side, and the transfer is bound by
+ * disk or page cache bandwidth.
+ * 
+ * The layout, all little-endian, is:
+ * 
+ * <pre>
+ * int32    MAGIC
+ * int32    VERSION
+ * int32    number of columns
+ * int32    number of rows
+ * for each column:
+ *   int32  type
+ *   string name
+ *   if type is FACTOR:
+ *     int32  number of levels
+ *     string level, for each level
+ * for each column, number of rows of:
+ *   DOUBLE     float64
+ *   INTEGER    int32
+ *   LOGICAL    int32, 1, 0 or NA_integer_
+ *   STRING     int32 NA flag for each row, then string for each row
+ *   FACTOR     int32 1-based code, or NA_integer_
+ *   INTEGER64  8 bytes, a bit64 integer64
+ * </pre>
+ * 
+ * where a string is UTF-8 bytes followed by a NUL. Strings therefore cannot
+ * contain NUL, which R strings cannot hold anyway.
+ * 
+ * @author Oliver Mannion
+ * @version $Revision$
+ */
+public final class TransferFile {
+
+	/**
+	 * Identifies a transfer file, "RFMT".
+	 */
+	public static final int MAGIC = 0x52464D54;
+
+	/**
+	 * Layout version.
+	 */
+	public static final int VERSION = 1;
+
+	/**
+	 * Column types.
+	 */
+	static final int DOUBLE = 1;
+	static final int INTEGER = 2;
+	static final int LOGICAL = 3;
+	static final int STRING = 4;
+	static final int FACTOR = 5;
+	static final int INTEGER64 = 6;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private TransferFile() {
+		// static utility class
+	}
+
+	/**
+	 * Write vectors, all of the same length, to a transfer file. Vectors may
+	 * be double, int, long, logical, String or factor vectors.
+	 * 
+	 * @param vectors
+	 *            vectors, eg: an {@link RVectorList}
+	 * @param file
+	 *            file to write, replaced if it exists
+	 * @throws UnsupportedTypeException
+	 *             if a vector is of another type
+	 * @throws IOException
+	 *             if problem writing
+	 */
+	public static void write(List<RVector> vectors, File file)
+			throws IOException {
+		int numRows = vectors.isEmpty() ? 0 : vectors.get(0).size();
+		int[] types = new int[vectors.size()];
+
+		ByteArrayList header = new ByteArrayList();
+		putInt(header, MAGIC);
+		putInt(header, VERSION);
+		putInt(header, vectors.size());
+		putInt(header, numRows);
+
+		for (int i = 0; i < types.length; i++) {
+			RVector vector = vectors.get(i);
+			if (vector.size() != numRows) {
+				throw new IllegalArgumentException("Vector "
+						+ vector.getName() + " has " + vector.size()
+						+ " elements, expected " + numRows);
+			}
+
+			types[i] = typeOf(vector);
+			putInt(header, types[i]);
+			putString(header, vector.getName());
+
+			if (types[i] == FACTOR) {
+				String[] levels =
+						((FactorList) vector.getValues()).getLevels();
+				putInt(header, levels.length);
+				for (String level : levels) {
+					putString(header, level);
+				}
+			}
+		}
+
+		if (file.exists() && !file.delete()) {
+			throw new IOException("Cannot replace " + file);
+		}
+
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			FileChannel channel = raf.getChannel();
+			channel.write(ByteBuffer.wrap(header.elements(), 0, header.size()));
+
+			long position = header.size();
+			for (int i = 0; i < types.length; i++) {
+				position =
+						writeColumn(channel, position, types[i], vectors.get(i)
+								.getValues(), numRows);
+			}
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Write a column at {@code position}.
+	 * 
+	 * @param channel
+	 *            file channel
+	 * @param position
+	 *            position in the file
+	 * @param type
+	 *            column type
+	 * @param values
+	 *            column values
+	 * @param numRows
+	 *            number of rows
+	 * @return position after the column
+	 * @throws IOException
+	 *             if problem writing
+	 */
+	private static long writeColumn(FileChannel channel, long position,
+			int type, List<?> values, int numRows) throws IOException {
+		switch (type) {
+		case DOUBLE:
+			map(channel, position, 8L * numRows).asDoubleBuffer().put(
+					((DoubleArrayList) values).elements(), 0, numRows);
+			return position + 8L * numRows;
+		case INTEGER:
+			map(channel, position, 4L * numRows).asIntBuffer().put(
+					((IntArrayList) values).elements(), 0, numRows);
+			return position + 4L * numRows;
+		case FACTOR:
+			map(channel, position, 4L * numRows).asIntBuffer().put(
+					((FactorList) values).getCodes().elements(), 0, numRows);
+			return position + 4L * numRows;
+		case INTEGER64:
+			map(channel, position, 8L * numRows).asLongBuffer().put(
+					((LongArrayList) values).elements(), 0, numRows);
+			return position + 8L * numRows;
+		case LOGICAL:
+			LogicalList logicals = (LogicalList) values;
+			MappedByteBuffer buffer = map(channel, position, 4L * numRows);
+			for (int i = 0; i < numRows; i++) {
+				if (logicals.isNA(i)) {
+					buffer.putInt(REXPInteger.NA);
+				} else {
+					buffer.putInt(logicals.getBoolean(i) ? 1 : 0);
+				}
+			}
+			return position + 4L * numRows;
+		case STRING:
+			return writeStrings(channel, position, values, numRows);
+		default:
+			throw new IllegalArgumentException("Unknown column type " + type);
+		}
+	}
+
+	/**
+	 * Write a String column at {@code position}.
+	 * 
+	 * @param channel
+	 *            file channel
+	 * @param position
+	 *            position in the file
+	 * @param values
+	 *            Strings
+	 * @param numRows
+	 *            number of rows
+	 * @return position after the column
+	 * @throws IOException
+	 *             if problem writing
+	 */
+	private static long writeStrings(FileChannel channel, long position,
+			List<?> values, int numRows) throws IOException {
+		// encode first, to find the size of the column
+		byte[][] encoded = new byte[numRows][];
+		long size = 4L * numRows;
+		for (int i = 0; i < numRows; i++) {
+			Object value = values.get(i);
+			encoded[i] = value == null ? new byte[0] : encode(value.toString());
+			size += encoded[i].length + 1;
+		}
+
+		MappedByteBuffer buffer = map(channel, position, size);
+		for (int i = 0; i < numRows; i++) {
+			buffer.putInt(values.get(i) == null ? 1 : 0);
+		}
+		for (int i = 0; i < numRows; i++) {
+			buffer.put(encoded[i]).put((byte) 0);
+		}
+		return position + size;
+	}
+
+	/**
+	 * Get the transfer type of a vector.
+	 * 
+	 * @param vector
+	 *            vector
+	 * @return type
+	 * @throws UnsupportedTypeException
+	 *             if the vector cannot be transferred
+	 */
+	private static int typeOf(RVector vector) throws UnsupportedTypeException {
+		List<?> values = vector.getValues();
+		if (values instanceof DoubleArrayList) {
+			return DOUBLE;
+		} else if (values instanceof IntArrayList) {
+			return INTEGER;
+		} else if (values instanceof LogicalList) {
+			return LOGICAL;
+		} else if (values instanceof FactorList) {
+			return FACTOR;
+		} else if (values instanceof LongArrayList) {
+			return INTEGER64;
+		} else if (vector.getType() == String.class) {
+			return STRING;
+		}
+		throw new UnsupportedTypeException("Cannot transfer vector "
+				+ vector.getName() + " of " + values.getClass().getName());
+	}
+
+	/**
+	 * Read vectors from a transfer file.
+	 * 
+	 * @param file
+	 *            file to read
+	 * @return vectors
+	 * @throws IOException
+	 *             if problem reading, or {@code file} is not a transfer file
+	 */
+	public static RVectorList read(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			ByteBuffer buffer = mapFrom(channel, 0);
+
+			if (buffer.remaining() < 16 || buffer.getInt() != MAGIC) {
+				throw new IOException(file + " is not a transfer file");
+			}
+			int version = buffer.getInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported transfer file version "
+						+ version);
+			}
+
+			int numCols = buffer.getInt();
+			int numRows = buffer.getInt();
+			int[] types = new int[numCols];
+			String[] names = new String[numCols];
+			String[][] levels = new String[numCols][];
+
+			for (int i = 0; i < numCols; i++) {
+				types[i] = buffer.getInt();
+				names[i] = getString(buffer);
+				if (types[i] == FACTOR) {
+					levels[i] = new String[buffer.getInt()];
+					for (int j = 0; j < levels[i].length; j++) {
+						levels[i][j] = getString(buffer);
+					}
+				}
+			}
+
+			RVectorList vectors =
+					new RVectorList(new String[0], new Class<?>[0], 0);
+			long position = buffer.position();
+			for (int i = 0; i < numCols; i++) {
+				buffer = mapFrom(channel, position);
+				vectors.add(readColumn(buffer, names[i], types[i], levels[i],
+						numRows));
+				position += buffer.position();
+			}
+			return vectors;
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Read a column.
+	 * 
+	 * @param buffer
+	 *            buffer positioned at the start of the column, left
+	 *            positioned after it
+	 * @param name
+	 *            column name
+	 * @param type
+	 *            column type
+	 * @param levels
+	 *            levels, if a factor
+	 * @param numRows
+	 *            number of rows
+	 * @return column
+	 * @throws IOException
+	 *             if problem reading
+	 */
+	private static RVector readColumn(ByteBuffer buffer, String name,
+			int type, String[] levels, int numRows) throws IOException {
+		switch (type) {
+		case DOUBLE:
+			double[] doubles = new double[numRows];
+			buffer.asDoubleBuffer().get(doubles);
+			buffer.position(buffer.position() + 8 * numRows);
+			return new RVector(name, Double.class, DoubleArrayList
+					.wrap(doubles));
+		case INTEGER:
+			return new RVector(name, Integer.class, IntArrayList
+					.wrap(getInts(buffer, numRows)));
+		case FACTOR:
+			return new RVector(name, String.class, FactorList.wrap(getInts(
+					buffer, numRows), levels));
+		case INTEGER64:
+			long[] longs = new long[numRows];
+			buffer.asLongBuffer().get(longs);
+			buffer.position(buffer.position() + 8 * numRows);
+			return new RVector(name, Long.class, LongArrayList.wrap(longs));
+		case LOGICAL:
+			LogicalList logicals = new LogicalList(numRows);
+			for (int i = 0; i < numRows; i++) {
+				int value = buffer.getInt();
+				if (REXPInteger.isNA(value)) {
+					logicals.add(null);
+				} else {
+					logicals.addBoolean(value != 0);
+				}
+			}
+			return new RVector(name, Boolean.class, logicals);
+		case STRING:
+			int[] nas = getInts(buffer, numRows);
+			List<String> strings = new ArrayList<String>(numRows);
+			for (int i = 0; i < numRows; i++) {
+				String value = getString(buffer);
+				strings.add(nas[i] == 0 ? value : null);
+			}
+			return new RVector(name, String.class, strings);
+		default:
+			throw new IOException("Unknown column type " + type
+					+ " for column " + name);
+		}
+	}
+
+	private static int[] getInts(ByteBuffer buffer, int numRows) {
+		int[] ints = new int[numRows];
+		buffer.asIntBuffer().get(ints);
+		buffer.position(buffer.position() + 4 * numRows);
+		return ints;
+	}
+
+	/**
+	 * Read a NUL terminated UTF-8 string.
+	 * 
+	 * @param buffer
+	 *            buffer, left positioned after the NUL
+	 * @return string
+	 */
+	private static String getString(ByteBuffer buffer) {
+		byte[] bytes = new byte[16];
+		int length = 0;
+		for (byte b = buffer.get(); b != 0; b = buffer.get()) {
+			if (length == bytes.length) {
+				bytes = Arrays.copyOf(bytes, length * 2);
+			}
+			bytes[length++] = b;
+		}
+		return new String(bytes, 0, length, UTF8);
+	}
+
+	private static void putInt(ByteArrayList bytes, int value) {
+		bytes.add((byte) value);
+		bytes.add((byte) (value >>> 8));
+		bytes.add((byte) (value >>> 16));
+		bytes.add((byte) (value >>> 24));
+	}
+
+	private static void putString(ByteArrayList bytes, String value)
+			throws IOException {
+		byte[] encoded = encode(value);
+		bytes.addElements(bytes.size(), encoded);
+		bytes.add((byte) 0);
+	}
+
+	/**
+	 * Encode a string as UTF-8.
+	 * 
+	 * @param value
+	 *            string
+	 * @return UTF-8 bytes
+	 * @throws IOException
+	 *             if {@code value} contains a NUL, which would terminate it
+	 *             early
+	 */
+	private static byte[] encode(String value) throws IOException {
+		if (value.indexOf('\0') >= 0) {
+			throw new IOException("Cannot transfer string containing NUL: "
+					+ value.replace('\0', ' '));
+		}
+		return value.getBytes(UTF8);
+	}
+
+	/**
+	 * Map a region of the file for writing.
+	 * 
+	 * @param channel
+	 *            file channel
+	 * @param position
+	 *            start of the region
+	 * @param size
+	 *            size of the region, at most {@link Integer#MAX_VALUE}
+	 * @return little-endian buffer
+	 * @throws IOException
+	 *             if problem mapping
+	 */
+	private static MappedByteBuffer map(FileChannel channel, long position,
+			long size) throws IOException {
+		if (size > Integer.MAX_VALUE) {
+			throw new IOException("Column of " + size
+					+ " bytes is too large to map");
+		}
+		MappedByteBuffer buffer =
+				channel.map(FileChannel.MapMode.READ_WRITE, position, size);
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		return buffer;
+	}
+
+	/**
+	 * Map the file from {@code position} to the end, or as much as can be
+	 * mapped at once, for reading.
+	 * 
+	 * @param channel
+	 *            file channel
+	 * @param position
+	 *            start of the region
+	 * @return little-endian buffer
+	 * @throws IOException
+	 *             if problem mapping
+	 */
+	private static ByteBuffer mapFrom(FileChannel channel, long position)
+			throws IOException {
+		long size = Math.min(channel.size() - position, Integer.MAX_VALUE);
+		MappedByteBuffer buffer =
+				channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		return buffer;
+	}
+
+}